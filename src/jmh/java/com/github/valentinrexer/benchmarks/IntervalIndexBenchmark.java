@@ -0,0 +1,115 @@
+package com.github.valentinrexer.benchmarks;
+
+import augmentedTree.IntervalTree;
+import com.github.valentinrexer.utils.IntervalIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IntervalIndexBenchmark {
+    /*
+    Gene lookups as done per read pair: pair sized queries against gene sized intervals on one chromosome.
+    Both structures hold the same intervals and answer the same query sequence.
+     */
+
+    private record Feature(int start, int stop) implements com.github.valentinrexer.utils.Interval, augmentedTree.Interval {
+        @Override
+        public int getStart() { return start; }
+
+        @Override
+        public int getStop() { return stop; }
+    }
+
+    private static final int QUERIES = 1 << 12;
+
+    @Param({"1000", "20000"})
+    private int genes;
+
+    private IntervalIndex<Feature> index;
+    private IntervalTree<Feature> tree;
+    private int[] queryStarts;
+    private int[] queryEnds;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        int chromosomeLength = 250_000_000;
+
+        List<Feature> features = new ArrayList<>(genes);
+        for (int i = 0; i < genes; i++) {
+            int start = random.nextInt(chromosomeLength);
+            features.add(new Feature(start, start + 1_000 + random.nextInt(60_000)));
+        }
+
+        index = new IntervalIndex<>(features);
+        tree = new IntervalTree<>();
+        tree.addAll(features);
+
+        queryStarts = new int[QUERIES];
+        queryEnds = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queryStarts[i] = random.nextInt(chromosomeLength);
+            queryEnds[i] = queryStarts[i] + 100 + random.nextInt(500);
+        }
+    }
+
+    private int nextQuery() {
+        next = (next + 1) & (QUERIES - 1);
+        return next;
+    }
+
+    @Benchmark
+    public List<Feature> spanningAugmentedTree() {
+        int q = nextQuery();
+        return tree.getIntervalsSpanning(queryStarts[q], queryEnds[q], new ArrayList<>());
+    }
+
+    @Benchmark
+    public List<Feature> spanningIndex() {
+        int q = nextQuery();
+        return index.getIntervalsSpanning(queryStarts[q], queryEnds[q], new ArrayList<>());
+    }
+
+    @Benchmark
+    public void spanningIndexCallback(Blackhole blackhole) {
+        int q = nextQuery();
+        index.forEachSpanning(queryStarts[q], queryEnds[q], blackhole::consume);
+    }
+
+    @Benchmark
+    public List<Feature> spannedByAugmentedTree() {
+        int q = nextQuery();
+        return tree.getIntervalsSpannedBy(queryStarts[q], queryEnds[q] + 100_000, new ArrayList<>());
+    }
+
+    @Benchmark
+    public List<Feature> spannedByIndex() {
+        int q = nextQuery();
+        return index.getIntervalsSpannedBy(queryStarts[q], queryEnds[q] + 100_000, new ArrayList<>());
+    }
+
+    @Benchmark
+    public void neighborsAugmentedTree(Blackhole blackhole) {
+        int q = nextQuery();
+        blackhole.consume(tree.getIntervalsLeftNeighbor(queryStarts[q], queryEnds[q], new ArrayList<>()));
+        blackhole.consume(tree.getIntervalsRightNeighbor(queryStarts[q], queryEnds[q], new ArrayList<>()));
+    }
+
+    @Benchmark
+    public void neighborsIndex(Blackhole blackhole) {
+        int q = nextQuery();
+        index.forEachLeftNeighbor(queryStarts[q], queryEnds[q], blackhole::consume);
+        index.forEachRightNeighbor(queryStarts[q], queryEnds[q], blackhole::consume);
+    }
+}
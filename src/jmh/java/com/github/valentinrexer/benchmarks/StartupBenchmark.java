@@ -0,0 +1,98 @@
+package com.github.valentinrexer.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+public class StartupBenchmark {
+    /*
+    Time from launching a bamfeatures process on the training data until its first output line arrives,
+    for the plain shaded jar, the jar with the AppCDS archive and the native executable.
+    TsvOutput flushes its first line immediately, so this is startup plus the first pair, not the whole run.
+    Needs the artifacts of the matching profiles, e.g.
+        mvn -Pcds package && mvn -Pbenchmark compile exec:exec -Dbenchmark=StartupBenchmark
+    a variant whose artifact was not built fails in its setup. The native profile is still experimental,
+    check the output of its executable against the jar before taking its startup time.
+     */
+
+    private static final Path TARGET = Paths.get("target");
+    private static final Path JAR = TARGET.resolve("bam_features-1.0-SNAPSHOT.jar");
+    private static final Path CDS_ARCHIVE = TARGET.resolve("bamfeatures.jsa");
+    private static final Path NATIVE = TARGET.resolve("bamfeatures");
+
+    @Param({"jar", "cds", "native"})
+    private String variant;
+
+    private List<String> command;
+    private Process process;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        command = new ArrayList<>();
+
+        switch (variant) {
+            case "jar" -> {
+                requireFile(JAR, "mvn package");
+                command.addAll(List.of(java, "-jar", JAR.toString()));
+            }
+            case "cds" -> {
+                requireFile(CDS_ARCHIVE, "mvn -Pcds package");
+                // -Xshare:on fails instead of silently running without an archive that does not match
+                command.addAll(List.of(java, "-Xshare:on", "-XX:SharedArchiveFile=" + CDS_ARCHIVE, "-jar", JAR.toString()));
+            }
+            case "native" -> {
+                requireFile(NATIVE, "mvn -Pnative package");
+                command.add(NATIVE.toString());
+            }
+            default -> throw new IllegalArgumentException("Unknown variant " + variant);
+        }
+
+        command.addAll(List.of(
+                "-gtf", "src/training/training.gtf",
+                "-bam", "src/training/training.bam",
+                "-o", "/dev/stdout"
+        ));
+    }
+
+    private static void requireFile(Path path, String build) {
+        if (!Files.exists(path)) throw new IllegalStateException(path + " is missing, build it with: " + build);
+    }
+
+    @Benchmark
+    public int firstOutput() throws IOException {
+        process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+
+        int first = process.getInputStream().read();
+        if (first < 0) throw new IllegalStateException(String.join(" ", command) + " exited without output");
+        return first;
+    }
+
+    @TearDown(Level.Invocation)
+    public void finishProcess() throws IOException, InterruptedException {
+        if (process == null) return;
+
+        // the rest of the output has to be drained, otherwise the process blocks on a full pipe
+        try (InputStream out = process.getInputStream()) {
+            out.transferTo(OutputStream.nullOutputStream());
+        }
+        process.waitFor();
+        process = null;
+    }
+}
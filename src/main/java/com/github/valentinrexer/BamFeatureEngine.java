@@ -0,0 +1,272 @@
+package com.github.valentinrexer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.file.Path;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public final class BamFeatureEngine {
+    /*
+    Library entry point: runs the feature extraction for one input file and hands out the PairFeatures
+    as objects instead of TSV lines. publish() follows java.util.concurrent.Flow, the extraction only
+    proceeds as far as the subscriber requested. stream() is a pull-style view of the same.
+    Every subscription and every stream is a separate pass over the input, started on the executor.
+     */
+
+    private static final int DEFAULT_STREAM_BUFFER = 1024;
+
+    // cancels the extraction behind streams that are dropped without being closed
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final TreeGtf treeGtf;
+    private final Boolean frStrand;
+    private final ExtractorOptions options;
+    private final Executor executor;
+
+    public BamFeatureEngine(TreeGtf treeGtf, Boolean frStrand, ExtractorOptions options, Executor executor) {
+        this.treeGtf = treeGtf;
+        this.frStrand = frStrand;
+        this.options = options;
+        this.executor = executor;
+    }
+
+    public BamFeatureEngine(TreeGtf treeGtf, Boolean frStrand, ExtractorOptions options) {
+        this(treeGtf, frStrand, options, runnable -> Thread.ofVirtual().name("bamfeatures-engine").start(runnable));
+    }
+
+    public BamFeatureEngine(TreeGtf treeGtf, Boolean frStrand) {
+        this(treeGtf, frStrand, new ExtractorOptions());
+    }
+
+    public Flow.Publisher<PairFeatures> publish(Path bamPath) {
+        return subscriber -> {
+            PairSubscription subscription = new PairSubscription(subscriber);
+            subscriber.onSubscribe(subscription);
+
+            try {
+                executor.execute(() -> subscription.run(bamPath));
+            } catch (RejectedExecutionException e) {
+                subscription.cancel();
+                subscriber.onError(e);
+            }
+        };
+    }
+
+    public Stream<PairFeatures> stream(Path bamPath) {
+        return stream(bamPath, DEFAULT_STREAM_BUFFER);
+    }
+
+    /*
+    At most bufferSize pairs are extracted ahead of the consumer, the extraction then waits with the input open.
+    Use the stream in try-with-resources: closing it stops the extraction and closes the input, also when
+    it was cut short by limit() or findFirst(). A stream that is dropped without closing is only stopped once
+    it is garbage collected.
+     */
+    public Stream<PairFeatures> stream(Path bamPath, int bufferSize) {
+        BufferingSubscriber subscriber = new BufferingSubscriber(bufferSize);
+        publish(bamPath).subscribe(subscriber);
+
+        // the extraction thread only reaches the subscriber, so the spliterator can become unreachable
+        PairSpliterator spliterator = new PairSpliterator(subscriber);
+        Cleaner.Cleanable cancellation = CLEANER.register(spliterator, subscriber::cancel);
+
+        return StreamSupport.stream(spliterator, false).onClose(cancellation::clean);
+    }
+
+    /*
+    Bridges the extraction thread to the subscriber: write() blocks while there is no outstanding demand
+     */
+    private final class PairSubscription implements Flow.Subscription, FeatureOutput {
+        private final Flow.Subscriber<? super PairFeatures> subscriber;
+        private long demand;
+        private boolean cancelled;
+        // signalled from the extraction thread, so onError never overlaps onNext
+        private Throwable invalidRequest;
+
+        PairSubscription(Flow.Subscriber<? super PairFeatures> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void run(Path bamPath) {
+            try {
+                FeatureExtractor.run(treeGtf, bamPath, this, frStrand, options);
+                if (!isCancelled()) subscriber.onComplete();
+            } catch (CancellationException e) {
+                // the subscriber is gone, nothing more to signal unless it requested a bad amount
+                Throwable failure = getInvalidRequest();
+                if (failure != null) subscriber.onError(failure);
+            } catch (IOException | RuntimeException e) {
+                if (!isCancelled()) subscriber.onError(e);
+            }
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (cancelled) return;
+
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Requested " + n + " pairs, must be positive");
+                cancelled = true;
+                notifyAll();
+                return;
+            }
+
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        private synchronized Throwable getInvalidRequest() {
+            return invalidRequest;
+        }
+
+        private synchronized void awaitDemand() {
+            try {
+                while (demand == 0 && !cancelled) wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+            }
+
+            if (cancelled) throw new CancellationException();
+            demand--;
+        }
+
+        @Override
+        public boolean startChromosome(String chromosome) {
+            if (isCancelled()) throw new CancellationException();
+            return true;
+        }
+
+        @Override
+        public boolean needsOrderedPairs() {
+            return false;
+        }
+
+        @Override
+        public void write(PairFeatures features) {
+            awaitDemand();
+            subscriber.onNext(features);
+        }
+
+        @Override
+        public void finish() {}
+
+        @Override
+        public void close() {}
+    }
+
+    /*
+    Subscriber behind stream(): keeps at most bufferSize pairs and requests more as they are taken
+     */
+    private static final class BufferingSubscriber implements Flow.Subscriber<PairFeatures> {
+        static final Object COMPLETE = new Object();
+
+        private final BlockingQueue<Object> buffer;
+        private final int bufferSize;
+        private volatile Flow.Subscription subscription;
+        private int takenSinceRequest;
+
+        BufferingSubscriber(int bufferSize) {
+            this.bufferSize = bufferSize;
+            // one extra slot for the completion or error signal
+            this.buffer = new ArrayBlockingQueue<>(bufferSize + 1);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(bufferSize);
+        }
+
+        @Override
+        public void onNext(PairFeatures item) {
+            buffer.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            buffer.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            buffer.add(COMPLETE);
+        }
+
+        /*
+        The next pair, COMPLETE or the failure of the extraction
+         */
+        Object take() throws InterruptedException {
+            Object next = buffer.take();
+
+            // hand out demand in chunks of half the buffer instead of one by one
+            if (next instanceof PairFeatures && ++takenSinceRequest >= Math.max(1, bufferSize / 2)) {
+                subscription.request(takenSinceRequest);
+                takenSinceRequest = 0;
+            }
+
+            return next;
+        }
+
+        void cancel() {
+            Flow.Subscription current = subscription;
+            if (current != null) current.cancel();
+        }
+    }
+
+    private static final class PairSpliterator extends Spliterators.AbstractSpliterator<PairFeatures> {
+        private final BufferingSubscriber subscriber;
+        private boolean done;
+
+        PairSpliterator(BufferingSubscriber subscriber) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super PairFeatures> action) {
+            if (done) return false;
+
+            Object next;
+            try {
+                next = subscriber.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                done = true;
+                subscriber.cancel();
+                throw new CancellationException("Interrupted while waiting for the next pair");
+            }
+
+            if (next == BufferingSubscriber.COMPLETE) {
+                done = true;
+                return false;
+            }
+
+            if (next instanceof Throwable failure) {
+                done = true;
+                if (failure instanceof IOException e) throw new UncheckedIOException(e);
+                if (failure instanceof RuntimeException e) throw e;
+                throw new CompletionException(failure);
+            }
+
+            action.accept((PairFeatures) next);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.valentinrexer;
+
+import java.io.IOException;
+import java.util.List;
+
+public class CompositeOutput implements FeatureOutput {
+    /*
+    Passes every call on to several outputs, so they can be filled in the same pass over the input
+     */
+
+    private final List<FeatureOutput> outputs;
+
+    public CompositeOutput(List<FeatureOutput> outputs) {
+        this.outputs = List.copyOf(outputs);
+    }
+
+    @Override
+    public void bind(ContigAnnotation annotation) {
+        for (FeatureOutput output : outputs) output.bind(annotation);
+    }
+
+    @Override
+    public boolean startChromosome(String chromosome) throws IOException {
+        boolean process = true;
+        for (FeatureOutput output : outputs) process &= output.startChromosome(chromosome);
+        return process;
+    }
+
+    @Override
+    public void write(PairFeatures features) throws IOException {
+        for (FeatureOutput output : outputs) output.write(features);
+    }
+
+    @Override
+    public void advance(String chromosome, int position) throws IOException {
+        for (FeatureOutput output : outputs) output.advance(chromosome, position);
+    }
+
+    @Override
+    public boolean needsOrderedPairs() {
+        for (FeatureOutput output : outputs) if (output.needsOrderedPairs()) return true;
+        return false;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        for (FeatureOutput output : outputs) output.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+
+        for (FeatureOutput output : outputs) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+        }
+
+        if (failure != null) throw failure;
+    }
+}
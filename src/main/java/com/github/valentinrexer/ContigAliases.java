@@ -0,0 +1,78 @@
+package com.github.valentinrexer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class ContigAliases {
+    /*
+    Decides which annotation seqids may stand for a contig of the input header. Exact candidates are
+        the contig name itself, explicit aliases and alternative names from the header (AN tag), in that order.
+    If automatic matching is on, the derived candidates are these names with the "chr" prefix added or removed
+        (chrM also matches MT). ContigAnnotation only tries them for contigs without an exact match.
+    Explicit aliases are read from a two column file: <annotation seqid> TAB <input contig>
+     */
+
+    private final boolean automatic;
+    private final Map<String, List<String>> explicit = new HashMap<>();
+
+    public ContigAliases(boolean automatic) {
+        this.automatic = automatic;
+    }
+
+    public ContigAliases addAlias(String annotationContig, String inputContig) {
+        explicit.computeIfAbsent(inputContig, c -> new ArrayList<>()).add(annotationContig);
+        return this;
+    }
+
+    public ContigAliases readAliasFile(Path aliasPath) throws IOException {
+        try (BufferedReader br = Files.newBufferedReader(aliasPath)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isBlank() || line.charAt(0) == '#') continue;
+
+                String[] columns = line.split("\t");
+                if (columns.length < 2)
+                    throw new IOException("Malformed alias line in " + aliasPath + ": " + line);
+
+                addAlias(columns[0], columns[1]);
+            }
+        }
+
+        return this;
+    }
+
+    public List<String> getExactCandidates(String inputContig, Collection<String> alternativeNames) {
+        List<String> candidates = new ArrayList<>();
+        candidates.add(inputContig);
+        candidates.addAll(explicit.getOrDefault(inputContig, List.of()));
+        candidates.addAll(alternativeNames);
+        return candidates;
+    }
+
+    public List<String> getDerivedCandidates(String inputContig, Collection<String> alternativeNames) {
+        if (!automatic) return List.of();
+
+        List<String> candidates = new ArrayList<>();
+        for (String name : getExactCandidates(inputContig, alternativeNames)) {
+            if (name.startsWith("chr")) candidates.add(name.substring(3));
+            else candidates.add("chr" + name);
+        }
+
+        if (inputContig.equals("chrM") || inputContig.equals("M")) candidates.add("MT");
+        if (inputContig.equals("MT")) candidates.add("chrM");
+
+        return candidates;
+    }
+
+    /*
+    Exact candidates followed by the derived ones
+     */
+    public List<String> getCandidates(String inputContig, Collection<String> alternativeNames) {
+        List<String> candidates = getExactCandidates(inputContig, alternativeNames);
+        candidates.addAll(getDerivedCandidates(inputContig, alternativeNames));
+        return candidates;
+    }
+}
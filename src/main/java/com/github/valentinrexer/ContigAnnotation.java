@@ -0,0 +1,140 @@
+package com.github.valentinrexer;
+
+import com.github.valentinrexer.utils.IntervalIndex;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+public final class ContigAnnotation {
+    /*
+    A TreeGtf resolved against the sequence dictionary of one input file. Gene lookups are keyed by
+    reference index and strand, so the per record path does no string hashing or comparison.
+    Immutable, one TreeGtf can be bound to any number of inputs at the same time.
+     */
+
+    private static final Logger logger = Logger.getLogger(ContigAnnotation.class.getName());
+
+    // at most this many names are listed when reporting unmatched contigs
+    private static final int REPORTED_CONTIGS = 20;
+
+    // the gene indexes of one contig, null where it has no genes on that strand
+    private record ContigTrees(IntervalIndex<Gene> unstranded, IntervalIndex<Gene> plus, IntervalIndex<Gene> minus) {
+        IntervalIndex<Gene> get(Boolean strand) {
+            if (strand == null) return unstranded;
+            return strand ? plus : minus;
+        }
+    }
+
+    private final TreeGtf treeGtf;
+    private final SAMSequenceDictionary dictionary;
+
+    // per reference index, null for contigs without annotation
+    private final ContigTrees[] trees;
+
+    // annotation seqid per reference index, null for contigs without annotation
+    private final String[] annotationContigs;
+    private final List<String> unmatchedAnnotationContigs;
+
+    ContigAnnotation(TreeGtf treeGtf, SAMSequenceDictionary dictionary, ContigAliases aliases) {
+        this.treeGtf = treeGtf;
+        this.dictionary = dictionary;
+
+        int size = dictionary.size();
+        this.trees = new ContigTrees[size];
+        this.annotationContigs = new String[size];
+
+        Set<String> annotated = treeGtf.getChromosomes();
+        Set<String> matched = new HashSet<>();
+
+        // exact names first, so a derived name (1 for chr1) can not take a seqid another contig is named after
+        for (SAMSequenceRecord sequence : dictionary.getSequences()) {
+            match(sequence, aliases.getExactCandidates(sequence.getSequenceName(), sequence.getAlternativeSequenceNames()),
+                    annotated, matched, true);
+        }
+
+        for (SAMSequenceRecord sequence : dictionary.getSequences()) {
+            if (annotationContigs[sequence.getSequenceIndex()] != null) continue;
+            match(sequence, aliases.getDerivedCandidates(sequence.getSequenceName(), sequence.getAlternativeSequenceNames()),
+                    annotated, matched, false);
+        }
+
+        List<String> unmatched = new ArrayList<>();
+        for (String contig : annotated)
+            if (!matched.contains(contig)) unmatched.add(contig);
+
+        Collections.sort(unmatched);
+        this.unmatchedAnnotationContigs = List.copyOf(unmatched);
+
+        if (!unmatched.isEmpty()) {
+            String listed = String.join(", ", unmatched.subList(0, Math.min(unmatched.size(), REPORTED_CONTIGS)));
+            if (unmatched.size() > REPORTED_CONTIGS) listed += ", ... (" + (unmatched.size() - REPORTED_CONTIGS) + " more)";
+
+            logger.warning(unmatched.size() + " annotation contig(s) not found in the input header, " +
+                    "their genes are ignored: " + listed);
+        }
+    }
+
+    private void match(SAMSequenceRecord sequence, List<String> candidates, Set<String> annotated, Set<String> matched, boolean exact) {
+        for (String candidate : candidates) {
+            if (!annotated.contains(candidate)) continue;
+
+            if (!matched.add(candidate)) {
+                // a derived name losing against an exact one is expected, two exact claims are not
+                if (exact) logger.warning("Annotation contig " + candidate + " matches more than one input contig, " +
+                        "keeping the first match");
+                continue;
+            }
+
+            int index = sequence.getSequenceIndex();
+            annotationContigs[index] = candidate;
+            trees[index] = new ContigTrees(treeGtf.getTree(candidate, null), treeGtf.getTree(candidate, true),
+                    treeGtf.getTree(candidate, false));
+            return;
+        }
+    }
+
+    private IntervalIndex<Gene> getTree(int referenceIndex, Boolean strand) {
+        if (referenceIndex < 0 || referenceIndex >= trees.length || trees[referenceIndex] == null) return null;
+        return trees[referenceIndex].get(strand);
+    }
+
+    public void forEachContainingGene(int referenceIndex, int start, int end, Boolean strand, Consumer<Gene> action) {
+        IntervalIndex<Gene> tree = getTree(referenceIndex, strand);
+        if (tree != null) tree.forEachSpanning(start, end, action);
+    }
+
+    public List<Gene> getLeftNeighbor(int referenceIndex, int start, int end, Boolean strand) {
+        IntervalIndex<Gene> tree = getTree(referenceIndex, strand);
+        if (tree == null) return Collections.emptyList();
+        return tree.getIntervalsLeftNeighbor(start, end, new ArrayList<>());
+    }
+
+    public List<Gene> getRightNeighbor(int referenceIndex, int start, int end, Boolean strand) {
+        IntervalIndex<Gene> tree = getTree(referenceIndex, strand);
+        if (tree == null) return Collections.emptyList();
+        return tree.getIntervalsRightNeighbor(start, end, new ArrayList<>());
+    }
+
+    /*
+    The annotation seqid matched to an input contig, null if there is none
+     */
+    public String getAnnotationContig(String inputContig) {
+        int index = dictionary.getSequenceIndex(inputContig);
+        return index < 0 ? null : annotationContigs[index];
+    }
+
+    /*
+    strand is '+', '-' or '.' for either strand, chromosome is an input contig name
+     */
+    public boolean isAnnotatedIntron(String inputContig, int start, int end, char strand) {
+        String annotationContig = getAnnotationContig(inputContig);
+        return annotationContig != null && treeGtf.isAnnotatedIntron(annotationContig, start, end, strand);
+    }
+
+    public List<String> getUnmatchedAnnotationContigs() { return unmatchedAnnotationContigs; }
+
+    public TreeGtf getTreeGtf() { return treeGtf; }
+}
@@ -0,0 +1,173 @@
+package com.github.valentinrexer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+public class CountsOutput implements FeatureOutput {
+    /*
+    Accumulates the per pair results into one row per gene and per transcript instead of writing them.
+    A pair assigned to several genes (gcount > 1) is counted for each of them.
+    Counters are flat primitive arrays indexed by gene / transcript ordinal. Every writing thread counts into
+    its own arrays, so workers never contend on a hot gene or share cache lines, and finish() sums them up.
+    finish() must only run once all writers are done, e.g. after their futures completed.
+     */
+
+    private static final int TRANSCRIPTOMIC = 0;
+    private static final int MERGED = 1;
+    private static final int INTRONIC = 2;
+    private static final int SPLIT = 3;
+    private static final int UNSPLIT = 4;
+    private static final int UNIQUE = 5;
+    private static final int PCR_DUPLICATE = 6;
+    private static final int COLUMNS = 7;
+
+    private static final String HEADER = "type\tid\tgene_id\ttranscriptomic\tmerged\tintronic\tsplit\tunsplit\tunique\tpcr_duplicate";
+
+    // counters are allocated in pages of this many, a worker only pays for the genes its shards touch
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    /*
+    One thread's counters, only ever written by that thread
+     */
+    private static final class Counters {
+        final long[][] genePages;
+        final long[][] transcriptPages;
+
+        Counters(int geneCounters, int transcriptCounters) {
+            genePages = new long[(geneCounters + PAGE_SIZE - 1) >>> PAGE_BITS][];
+            transcriptPages = new long[(transcriptCounters + PAGE_SIZE - 1) >>> PAGE_BITS][];
+        }
+
+        static void increment(long[][] pages, int index) {
+            long[] page = pages[index >>> PAGE_BITS];
+            if (page == null) page = pages[index >>> PAGE_BITS] = new long[PAGE_SIZE];
+            page[index & (PAGE_SIZE - 1)]++;
+        }
+
+        static void addTo(long[][] pages, long[] sums) {
+            for (int p = 0; p < pages.length; p++) {
+                if (pages[p] == null) continue;
+
+                int offset = p << PAGE_BITS;
+                int length = Math.min(PAGE_SIZE, sums.length - offset);
+                for (int i = 0; i < length; i++) sums[offset + i] += pages[p][i];
+            }
+        }
+    }
+
+    private final Path outPath;
+    private final Gene[] genes;
+    private final int geneCounters;
+    private final int transcriptCounters;
+    private final List<Counters> threadCounters = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Counters> counters;
+    private final LongAdder intergenic = new LongAdder();
+    private final LongAdder splitInconsistent = new LongAdder();
+
+    public CountsOutput(Path outPath, TreeGtf treeGtf) {
+        this.outPath = outPath;
+        this.genes = treeGtf.getGenes().toArray(new Gene[0]);
+        this.geneCounters = treeGtf.getGeneCount() * COLUMNS;
+        this.transcriptCounters = treeGtf.getTranscriptCount() * COLUMNS;
+        this.counters = ThreadLocal.withInitial(() -> {
+            Counters created = new Counters(geneCounters, transcriptCounters);
+            threadCounters.add(created);
+            return created;
+        });
+    }
+
+    @Override
+    public boolean startChromosome(String chromosome) {
+        return true;
+    }
+
+    @Override
+    public boolean needsOrderedPairs() {
+        return false;
+    }
+
+    @Override
+    public void write(PairFeatures features) {
+        if (features.splitInconsistent()) {
+            splitInconsistent.increment();
+            return;
+        }
+
+        if (features.level() == GenicLevel.INTERGENIC) {
+            intergenic.increment();
+            return;
+        }
+
+        Counters own = counters.get();
+        int splitColumn = features.nSplit() > 0 ? SPLIT : UNSPLIT;
+        int pcrColumn = features.pcrIndex() > 0 ? PCR_DUPLICATE : UNIQUE;
+
+        for (GenicLevelContainer container : features.genicLevels()) {
+            int levelColumn = switch (container.level()) {
+                case TRANSCRIPTOMIC -> TRANSCRIPTOMIC;
+                case MERGED_TRANSCRIPTOMIC -> MERGED;
+                default -> INTRONIC;
+            };
+
+            int geneOffset = container.gene().getOrdinal() * COLUMNS;
+            Counters.increment(own.genePages, geneOffset + levelColumn);
+            Counters.increment(own.genePages, geneOffset + splitColumn);
+            Counters.increment(own.genePages, geneOffset + pcrColumn);
+
+            for (Transcript transcript : container.transcripts()) {
+                int transcriptOffset = transcript.getOrdinal() * COLUMNS;
+                Counters.increment(own.transcriptPages, transcriptOffset + TRANSCRIPTOMIC);
+                Counters.increment(own.transcriptPages, transcriptOffset + splitColumn);
+                Counters.increment(own.transcriptPages, transcriptOffset + pcrColumn);
+            }
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        long[] geneCounts = new long[geneCounters];
+        long[] transcriptCounts = new long[transcriptCounters];
+
+        for (Counters thread : threadCounters) {
+            Counters.addTo(thread.genePages, geneCounts);
+            Counters.addTo(thread.transcriptPages, transcriptCounts);
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(outPath)) {
+            writer.write("# intergenic\t" + intergenic.sum());
+            writer.newLine();
+            writer.write("# split-inconsistent\t" + splitInconsistent.sum());
+            writer.newLine();
+            writer.write(HEADER);
+            writer.newLine();
+
+            for (Gene gene : genes) {
+                writeRow(writer, "gene", gene.getGeneId(), gene.getGeneId(), geneCounts, gene.getOrdinal());
+
+                for (Transcript transcript : gene.getTranscripts())
+                    writeRow(writer, "transcript", transcript.getTranscriptId(), gene.getGeneId(), transcriptCounts, transcript.getOrdinal());
+            }
+        }
+    }
+
+    private static void writeRow(BufferedWriter writer, String type, String id, String geneId,
+                                 long[] counts, int ordinal) throws IOException {
+        StringBuilder row = new StringBuilder(type).append('\t').append(id).append('\t').append(geneId);
+        int offset = ordinal * COLUMNS;
+
+        for (int column = 0; column < COLUMNS; column++)
+            row.append('\t').append(counts[offset + column]);
+
+        writer.write(row.toString());
+        writer.newLine();
+    }
+
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,83 @@
+package com.github.valentinrexer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class CoverageOutput implements FeatureOutput {
+    /*
+    Builds fragment coverage from the merged block vector of every read pair and writes it as bedGraph.
+    With splitStrands the coverage goes to <name>.plus.<ext> and <name>.minus.<ext>, the strand of a pair
+    being the strand of its first read, flipped for non FR-stranded libraries.
+     */
+
+    private final Boolean frStrand;
+    private final BufferedWriter[] writers;
+    private final CoverageTrack[] tracks;
+
+    public CoverageOutput(Path outPath, boolean splitStrands, Boolean frStrand) throws IOException {
+        this.frStrand = frStrand;
+
+        if (splitStrands) {
+            writers = new BufferedWriter[] {
+                    openTrack(withSuffix(outPath, "plus"), "plus"),
+                    openTrack(withSuffix(outPath, "minus"), "minus")
+            };
+        } else {
+            writers = new BufferedWriter[] { openTrack(outPath, "coverage") };
+        }
+
+        tracks = new CoverageTrack[writers.length];
+        for (int i = 0; i < writers.length; i++) tracks[i] = new CoverageTrack(writers[i]);
+    }
+
+    private static BufferedWriter openTrack(Path path, String name) throws IOException {
+        BufferedWriter writer = Files.newBufferedWriter(path);
+        writer.write("track type=bedGraph name=" + name);
+        writer.newLine();
+        return writer;
+    }
+
+    private static Path withSuffix(Path path, String suffix) {
+        String fileName = path.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+
+        if (dot <= 0) return path.resolveSibling(fileName + "." + suffix);
+        return path.resolveSibling(fileName.substring(0, dot) + "." + suffix + fileName.substring(dot));
+    }
+
+    @Override
+    public boolean startChromosome(String chromosome) throws IOException {
+        for (CoverageTrack track : tracks) track.startChromosome(chromosome);
+        return true;
+    }
+
+    @Override
+    public void write(PairFeatures features) {
+        CoverageTrack track = tracks[0];
+
+        if (tracks.length > 1) {
+            boolean plus = frStrand == null || frStrand ? features.strand() : !features.strand();
+            track = plus ? tracks[0] : tracks[1];
+        }
+
+        for (int i = 0; i < features.getBlockCount(); i++) track.add(features.getBlockStart(i), features.getBlockEnd(i));
+    }
+
+    @Override
+    public void advance(String chromosome, int position) throws IOException {
+        for (CoverageTrack track : tracks) track.advance(position);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        for (CoverageTrack track : tracks) track.finishChromosome();
+        for (BufferedWriter writer : writers) writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (BufferedWriter writer : writers) writer.close();
+    }
+}
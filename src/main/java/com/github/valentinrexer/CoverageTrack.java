@@ -0,0 +1,112 @@
+package com.github.valentinrexer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class CoverageTrack {
+    /*
+    Per base coverage of one chromosome as a difference array over a sliding window.
+    Positions left of the window are final, they are written as run length encoded
+    bedGraph lines (0-based, half open) as soon as the window moves past them.
+    Zero coverage runs are not written.
+     */
+
+    private static final int INITIAL_WINDOW = 1 << 16;
+
+    private final BufferedWriter writer;
+
+    private String chromosome;
+    private int[] diff = new int[INITIAL_WINDOW];
+    private int offset = 1;     // 1-based position of diff[0]
+    private int touched = 0;    // diff[touched..] is all zero
+    private int coverage = 0;   // coverage at position offset - 1
+
+    private int runStart = -1;
+    private int runValue = 0;
+
+    public CoverageTrack(BufferedWriter writer) {
+        this.writer = writer;
+    }
+
+    public void startChromosome(String chromosome) throws IOException {
+        finishChromosome();
+        this.chromosome = chromosome;
+    }
+
+    /*
+    Adds one to every position of the closed interval [start, end]
+     */
+    public void add(int start, int end) {
+        if (start < offset)
+            throw new IllegalStateException("Coverage input is not coordinate sorted at " + chromosome + ":" + start);
+
+        int last = end + 1 - offset;
+        if (last >= diff.length) diff = Arrays.copyOf(diff, Math.max(diff.length * 2, last + 1));
+
+        diff[start - offset]++;
+        diff[last]--;
+        touched = Math.max(touched, last + 1);
+    }
+
+    /*
+    Writes everything left of position, nothing will be added there anymore
+     */
+    public void advance(int position) throws IOException {
+        // shifting the window is linear in its size, so only do it once half of it is final
+        if (position - offset < diff.length / 2) return;
+        flush(position);
+    }
+
+    public void finishChromosome() throws IOException {
+        if (chromosome == null) return;
+
+        flush(offset + touched);
+        closeRun(offset);
+
+        chromosome = null;
+        offset = 1;
+        touched = 0;
+        coverage = 0;
+    }
+
+    private void flush(int position) throws IOException {
+        int n = position - offset;
+        if (n <= 0) return;
+
+        int limit = Math.min(n, touched);
+        for (int i = 0; i < limit; i++) {
+            coverage += diff[i];
+            extendRun(offset + i, coverage);
+        }
+
+        if (n > touched) {
+            // nothing was added beyond touched, coverage stays at zero up to position
+            extendRun(offset + touched, coverage);
+            touched = 0;
+            Arrays.fill(diff, 0);
+        } else {
+            System.arraycopy(diff, n, diff, 0, touched - n);
+            Arrays.fill(diff, touched - n, touched, 0);
+            touched -= n;
+        }
+
+        offset = position;
+    }
+
+    private void extendRun(int position, int value) throws IOException {
+        if (runStart >= 0 && value == runValue) return;
+
+        closeRun(position);
+        runStart = position;
+        runValue = value;
+    }
+
+    private void closeRun(int position) throws IOException {
+        if (runStart >= 0 && runValue != 0) {
+            writer.write(chromosome + "\t" + (runStart - 1) + "\t" + (position - 1) + "\t" + runValue);
+            writer.newLine();
+        }
+        runStart = -1;
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.valentinrexer;
+
+import htsjdk.samtools.cram.ref.CRAMReferenceSource;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ExtractorOptions {
+    /*
+    Optional settings of a FeatureExtractor run, the defaults process every record of the input
+     */
+
+    public enum Collation {
+        // stream input marked as or found in coordinate order and name grouped input the outputs take in any order,
+        // collate the rest
+        AUTO,
+        ALWAYS,
+        // pair in input order, only mates that meet on the same chromosome are found
+        NEVER
+    }
+
+    private ReadSampler sampler;
+    private Collation collation = Collation.AUTO;
+    private long collationMemory = 512L << 20;
+    private Path tempDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+    private long tempLimit = Long.MAX_VALUE;
+    private ContigAliases contigAliases = new ContigAliases(false);
+    private CRAMReferenceSource referenceSource;
+    private final List<String> regions = new ArrayList<>();
+    private int scatterIndex;
+    private int scatterCount;
+    private Map<String, String> scatterRun = Map.of();
+
+    public ExtractorOptions setSampler(ReadSampler sampler) {
+        this.sampler = sampler;
+        return this;
+    }
+
+    public ExtractorOptions setContigAliases(ContigAliases contigAliases) {
+        this.contigAliases = contigAliases;
+        return this;
+    }
+
+    // reference for CRAM input, without one htsjdk falls back to REF_PATH / REF_CACHE
+    public ExtractorOptions setReferenceSource(CRAMReferenceSource referenceSource) {
+        this.referenceSource = referenceSource;
+        return this;
+    }
+
+    public ExtractorOptions setCollation(Collation collation) {
+        this.collation = collation;
+        return this;
+    }
+
+    // bytes of mate projections kept in memory before a sorted run is spilled
+    public ExtractorOptions setCollationMemory(long collationMemory) {
+        this.collationMemory = collationMemory;
+        return this;
+    }
+
+    public ExtractorOptions setTempDirectory(Path tempDirectory) {
+        this.tempDirectory = tempDirectory;
+        return this;
+    }
+
+    // bytes all spilled runs together may take up, the run fails once they need more
+    public ExtractorOptions setTempLimit(long tempLimit) {
+        this.tempLimit = tempLimit;
+        return this;
+    }
+
+    public ExtractorOptions addRegion(String region) {
+        regions.add(region);
+        return this;
+    }
+
+    // only process the part of the input planned for slot index of count, see ParallelExtractor,
+    // run describes the inputs and options all slots of the run have to share, Gather checks it
+    public ExtractorOptions setScatter(int index, int count, Map<String, String> run) {
+        if (count < 1 || index < 0 || index >= count)
+            throw new IllegalArgumentException("Invalid shard " + index + "/" + count);
+        this.scatterIndex = index;
+        this.scatterCount = count;
+        this.scatterRun = Collections.unmodifiableMap(new LinkedHashMap<>(run));
+        return this;
+    }
+
+    public ReadSampler getSampler() { return sampler; }
+
+    public ContigAliases getContigAliases() { return contigAliases; }
+
+    public CRAMReferenceSource getReferenceSource() { return referenceSource; }
+
+    public Collation getCollation() { return collation; }
+
+    public long getCollationMemory() { return collationMemory; }
+
+    public Path getTempDirectory() { return tempDirectory; }
+
+    public long getTempLimit() { return tempLimit; }
+
+    // regions as chr, chr:start or chr:start-end (1-based, inclusive), only usable with indexed input
+    public List<String> getRegions() { return Collections.unmodifiableList(regions); }
+
+    public int getScatterIndex() { return scatterIndex; }
+
+    // 0 unless the run is one slot of a scattered run
+    public int getScatterCount() { return scatterCount; }
+
+    public Map<String, String> getScatterRun() { return scatterRun; }
+}
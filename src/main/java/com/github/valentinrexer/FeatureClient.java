@@ -0,0 +1,103 @@
+package com.github.valentinrexer;
+
+import org.apache.commons.cli.*;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class FeatureClient {
+    /*
+    Submits one job to a running FeatureServer and blocks until it is finished
+     */
+
+    public static String submit(Path socketPath, Path bamPath, Path outPath, Boolean frStrand) throws IOException {
+        String request = bamPath.toAbsolutePath() + "\t" +
+                outPath.toAbsolutePath() + "\t" +
+                (frStrand == null ? "" : frStrand.toString());
+
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socketPath));
+
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+            writer.write(request);
+            writer.newLine();
+            writer.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            String response = reader.readLine();
+            if (response == null) throw new IOException("Server closed the connection without answering");
+
+            return response;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+
+        options.addOption(Option.builder("socket")
+                .hasArg()
+                .argName("socket_file")
+                .required(true)
+                .desc("Unix domain socket of the running server")
+                .build());
+
+        options.addOption(Option.builder("bam")
+                .hasArg()
+                .argName("bam_file")
+                .required(true)
+                .desc("Input BAM file")
+                .build());
+
+        options.addOption(Option.builder("o")
+                .longOpt("output")
+                .hasArg()
+                .argName("output_tsv")
+                .required(true)
+                .desc("Output TSV file")
+                .build());
+
+        options.addOption(Option.builder("frstrand")
+                .hasArg()
+                .argName("true/false")
+                .required(false)
+                .desc("FR-stranded flag")
+                .build());
+
+        CommandLineParser cliParser = new DefaultParser();
+        CommandLine cmd;
+
+        try {
+            cmd = cliParser.parse(options, args);
+        } catch (ParseException e) {
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("bamfeatures submit", options, true);
+            System.err.println("Error: " + e.getMessage());
+            return;
+        }
+
+        Boolean frStrand = null;
+        if (cmd.hasOption("frstrand")) {
+            frStrand = Boolean.parseBoolean(cmd.getOptionValue("frstrand"));
+        }
+
+        String response = submit(
+                Paths.get(cmd.getOptionValue("socket")),
+                Paths.get(cmd.getOptionValue("bam")),
+                Paths.get(cmd.getOptionValue("o")),
+                frStrand
+        );
+
+        System.out.println(response);
+        if (!response.startsWith("OK")) System.exit(1);
+    }
+}
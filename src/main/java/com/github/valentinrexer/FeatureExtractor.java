@@ -0,0 +1,549 @@
+package com.github.valentinrexer;
+
+import com.github.valentinrexer.profiling.MatePairingEvent;
+import com.github.valentinrexer.profiling.OutputEvent;
+import com.github.valentinrexer.profiling.RecordDecodeEvent;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+public class FeatureExtractor {
+    private static final Logger logger = Logger.getLogger(FeatureExtractor.class.getName());
+
+    // records read ahead to tell the order of input that is not marked as coordinate sorted
+    private static final int LOOKAHEAD_RECORDS = 10_000;
+
+    private enum InputOrder {
+        COORDINATE("in coordinate order"),
+        // the mates of each pair follow each other, as in name sorted input or the unsorted output of an aligner
+        NAME_GROUPED("grouped by read name"),
+        UNSORTED("unsorted");
+
+        final String description;
+
+        InputOrder(String description) {
+            this.description = description;
+        }
+    }
+
+    public static long run(TreeGtf treeGtf, Path bamPath, Path outPath, Boolean frStrand) throws IOException {
+        return run(treeGtf, bamPath, new TsvOutput(outPath), frStrand);
+    }
+
+    /*
+    Runs one BAM file against an already loaded annotation and writes one line per read pair.
+    Returns the number of written lines.
+     */
+    public static long run(TreeGtf treeGtf, Path bamPath, FeatureOutput output, Boolean frStrand) throws IOException {
+        return run(treeGtf, bamPath, output, frStrand, new ExtractorOptions());
+    }
+
+    public static long run(TreeGtf treeGtf, Path bamPath, FeatureOutput output, Boolean frStrand,
+                           ExtractorOptions options) throws IOException {
+        try (output; SamReader sam = openReader(bamPath, options);
+             RecordSource records = new RecordSource(sam, options.getRegions())) {
+            SAMFileHeader header = sam.getFileHeader();
+            SAMFileHeader.SortOrder sortOrder = header.getSortOrder();
+
+            ContigAnnotation annotation = treeGtf.bind(header.getSequenceDictionary(), options.getContigAliases());
+            output.bind(annotation);
+            PairSink sink = new PairSink(annotation, output, frStrand);
+
+            InputOrder order = sortOrder == SAMFileHeader.SortOrder.coordinate ? InputOrder.COORDINATE : InputOrder.UNSORTED;
+            if (order != InputOrder.COORDINATE && options.getCollation() == ExtractorOptions.Collation.AUTO) {
+                order = records.lookAhead(LOOKAHEAD_RECORDS, options.getSampler());
+                logger.info("The input is marked as " + sortOrder + ", its first records are " + order.description);
+            }
+
+            boolean collate = switch (options.getCollation()) {
+                case ALWAYS -> true;
+                case NEVER -> false;
+                // name grouped input has its mates together, but jumps between chromosomes
+                case AUTO -> order == InputOrder.UNSORTED || (order == InputOrder.NAME_GROUPED && output.needsOrderedPairs());
+            };
+
+            if (collate) collatePairs(records, header, options, sink);
+            else if (order == InputOrder.NAME_GROUPED) streamGroupedPairs(records, options, sink);
+            else streamPairs(records, order == InputOrder.COORDINATE, options.getSampler(), sink);
+
+            output.finish();
+            return sink.written;
+        }
+    }
+
+    /*
+    Pairs the records in input order, mates wait in memory until their partner shows up on the same chromosome.
+    Coordinate sorted input (marked as such or found in coordinate order by the look ahead) is checked on the way,
+    a record out of order would silently lose pairs.
+     */
+    private static void streamPairs(RecordSource records, boolean coordinateSorted, ReadSampler sampler,
+                                    PairSink sink) throws IOException {
+        // insertion ordered, so for coordinate sorted input the leftmost waiting mate comes first
+        LinkedHashMap<String, MateProjection> pendingRecords = new LinkedHashMap<>();
+        int lastReference = SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX, lastPosition = 0;
+
+        while (records.hasNext()) {
+            SAMRecord record = records.next();
+            if (!isPairCandidate(record, sampler)) continue;
+
+            int referenceIndex = record.getReferenceIndex();
+            int position = record.getAlignmentStart();
+
+            if (coordinateSorted) {
+                if (referenceIndex < lastReference || (referenceIndex == lastReference && position < lastPosition))
+                    throw new IllegalStateException("Input is not in coordinate order, " + record.getReadName() +
+                            " is out of order, rerun with -collate always");
+
+                lastReference = referenceIndex;
+                lastPosition = position;
+            }
+
+            // mates never span chromosomes
+            if (sink.enterChromosome(referenceIndex, record.getReferenceName())) pendingRecords.clear();
+            if (sink.skipChromosome) {
+                records.skipChromosome(referenceIndex);
+                continue;
+            }
+
+            if (coordinateSorted) {
+                var oldest = pendingRecords.values().iterator();
+
+                while (oldest.hasNext()) {
+                    MateProjection pending = oldest.next();
+                    if (pending.getMateAlignmentStart() >= position) {
+                        position = Math.min(position, pending.getAlignmentStart());
+                        break;
+                    }
+
+                    // the mate lies before the current position and was never seen, so it got filtered out
+                    oldest.remove();
+                }
+
+                sink.output.advance(sink.currentChromosome, position);
+            }
+
+            MatePairingEvent pairingEvent = new MatePairingEvent();
+            pairingEvent.begin();
+            ReadPair pair = pairWithMate(MateProjection.of(record), pendingRecords);
+            pairingEvent.commit();
+
+            if (pair != null) sink.write(pair);
+        }
+    }
+
+    /*
+    Pairs input that keeps the mates of a pair next to each other. The chromosomes interleave, so mates keep waiting
+    across chromosome changes and every chromosome keeps its PCR indices until the end. Only orphans are left waiting,
+    once they take more than the collation memory the input is not grouped after all.
+     */
+    private static void streamGroupedPairs(RecordSource records, ExtractorOptions options, PairSink sink) throws IOException {
+        Map<String, MateProjection> pendingRecords = new HashMap<>();
+        long pendingBytes = 0;
+
+        while (records.hasNext()) {
+            SAMRecord record = records.next();
+            if (!isPairCandidate(record, options.getSampler())) continue;
+
+            sink.returnToChromosome(record.getReferenceIndex(), record.getReferenceName());
+            if (sink.skipChromosome) continue;
+
+            MatePairingEvent pairingEvent = new MatePairingEvent();
+            pairingEvent.begin();
+            MateProjection projection = MateProjection.of(record);
+            MateProjection mate = pendingRecords.remove(projection.getReadName());
+            ReadPair pair = null;
+
+            if (mate == null) {
+                pendingRecords.put(projection.getReadName(), projection);
+                pendingBytes += projection.estimateSize();
+            } else {
+                pendingBytes -= mate.estimateSize();
+                pair = toPair(projection, mate);
+            }
+            pairingEvent.commit();
+
+            if (pendingBytes > options.getCollationMemory())
+                throw new IllegalStateException("Input is not grouped by read name, " + pendingRecords.size() +
+                        " mates wait for their partner, rerun with -collate always");
+
+            if (pair != null) sink.write(pair);
+        }
+    }
+
+    /*
+    Sorts the candidate records by chromosome, pair start and read name through a MateCollator first,
+    so any input order works with bounded memory. Pairs come out chromosome by chromosome, ordered by the start
+    of their leftmost mate, which lets the output advance like for coordinate sorted input.
+     */
+    private static void collatePairs(RecordSource records, SAMFileHeader header, ExtractorOptions options,
+                                     PairSink sink) throws IOException {
+        List<SAMSequenceRecord> sequences = header.getSequenceDictionary().getSequences();
+        String[] contigNames = new String[sequences.size()];
+        for (SAMSequenceRecord sequence : sequences) contigNames[sequence.getSequenceIndex()] = sequence.getSequenceName();
+
+        try (MateCollator collator = new MateCollator(options.getTempDirectory(), options.getCollationMemory(),
+                options.getTempLimit(), contigNames)) {
+            boolean inCoordinateOrder = true;
+            int lastReference = SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX, lastPosition = 0;
+
+            while (records.hasNext()) {
+                SAMRecord record = records.next();
+                if (!isPairCandidate(record, options.getSampler())) continue;
+
+                int referenceIndex = record.getReferenceIndex();
+                int position = record.getAlignmentStart();
+                if (referenceIndex < lastReference || (referenceIndex == lastReference && position < lastPosition))
+                    inCoordinateOrder = false;
+
+                lastReference = referenceIndex;
+                lastPosition = position;
+
+                collator.add(MateProjection.of(record));
+            }
+
+            logger.info("Collating " + collator.getAddedCount() + " records from " + collator.getRunCount() + " spilled run(s)");
+            if (inCoordinateOrder && collator.getAddedCount() > 0)
+                logger.info("The input was in coordinate order, -collate auto would have skipped the collation");
+
+            MateProjection waiting = null;
+            Iterator<MateProjection> collated = collator.iterator();
+
+            while (collated.hasNext()) {
+                MateProjection projection = collated.next();
+
+                sink.enterChromosome(projection.getReferenceIndex(), projection.getChromosome());
+                if (sink.skipChromosome) continue;
+
+                sink.output.advance(sink.currentChromosome, projection.getPairStart());
+
+                MatePairingEvent pairingEvent = new MatePairingEvent();
+                pairingEvent.begin();
+                ReadPair pair = null;
+
+                if (waiting != null && waiting.getReferenceIndex() == projection.getReferenceIndex() &&
+                        waiting.getReadName().equals(projection.getReadName())) {
+                    pair = toPair(waiting, projection);
+                    waiting = null;
+                } else {
+                    waiting = projection;
+                }
+                pairingEvent.commit();
+
+                if (pair != null) sink.write(pair);
+            }
+        }
+    }
+
+    /*
+    Processes the pairs owned by one shard of an indexed, coordinate sorted input: those whose leftmost mate
+    starts within the shard. Reading goes past the shard end only as far as needed to meet the right mates.
+    A shard sees the pairs of its region in the same order as a full run, so identical blocks (which always
+    share their leftmost mate start and thus their shard) get the same PCR indices as in a sequential run.
+     */
+    static long runShard(ContigAnnotation annotation, SamReader sam, ShardPlanner.Shard shard, FeatureOutput output,
+                         Boolean frStrand, ReadSampler sampler) throws IOException {
+        PairSink sink = new PairSink(annotation, output, frStrand);
+        if (!sink.enterChromosome(shard.referenceIndex(), shard.contig()) || sink.skipChromosome) return 0;
+
+        LinkedHashMap<String, MateProjection> pendingRecords = new LinkedHashMap<>();
+        int lastMateStart = shard.end();
+
+        // open ended overlap query, records reaching into the shard from the left belong to the previous one
+        try (SAMRecordIterator records = sam.queryOverlapping(shard.contig(), shard.start(), 0)) {
+            while (records.hasNext()) {
+                SAMRecord record = nextRecord(records);
+                int position = record.getAlignmentStart();
+
+                if (position < shard.start()) continue;
+                if (position > shard.end() && (pendingRecords.isEmpty() || position > lastMateStart)) break;
+                if (!isPairCandidate(record, sampler)) continue;
+
+                var oldest = pendingRecords.values().iterator();
+                while (oldest.hasNext()) {
+                    if (oldest.next().getMateAlignmentStart() >= position) break;
+                    oldest.remove();
+                }
+
+                boolean owned = position <= shard.end() && record.getMateAlignmentStart() >= shard.start();
+                if (!owned && !pendingRecords.containsKey(record.getReadName())) continue;
+
+                if (owned) lastMateStart = Math.max(lastMateStart, record.getMateAlignmentStart());
+
+                MatePairingEvent pairingEvent = new MatePairingEvent();
+                pairingEvent.begin();
+                ReadPair pair = pairWithMate(MateProjection.of(record), pendingRecords);
+                pairingEvent.commit();
+
+                if (pair != null) sink.write(pair);
+            }
+        }
+
+        return sink.written;
+    }
+
+    /*
+    Per chromosome state shared by both pairing strategies
+     */
+    private static final class PairSink {
+        final ContigAnnotation annotation;
+        final FeatureOutput output;
+        final Boolean frStrand;
+        // per chromosome state of input that interleaves its chromosomes
+        final Map<Integer, PcrIndexMap> pcrIndexMaps = new HashMap<>();
+        final Map<Integer, Boolean> skippedChromosomes = new HashMap<>();
+
+        PcrIndexMap pcrIndexMap = new PcrIndexMap();
+
+        int currentReference = SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX;
+        String currentChromosome = "";
+        boolean skipChromosome = false;
+        long written = 0;
+
+        PairSink(ContigAnnotation annotation, FeatureOutput output, Boolean frStrand) {
+            this.annotation = annotation;
+            this.output = output;
+            this.frStrand = frStrand;
+        }
+
+        /*
+        Returns true if referenceIndex starts a new chromosome
+         */
+        boolean enterChromosome(int referenceIndex, String chromosome) throws IOException {
+            if (referenceIndex == currentReference) return false;
+
+            // PCR duplicates never span chromosomes
+            pcrIndexMap.clear();
+            currentReference = referenceIndex;
+            currentChromosome = chromosome;
+            skipChromosome = !output.startChromosome(chromosome);
+            return true;
+        }
+
+        /*
+        Like enterChromosome for input that comes back to chromosomes it left: each is started on the output
+        only once and continues with its own PCR indices
+         */
+        void returnToChromosome(int referenceIndex, String chromosome) throws IOException {
+            if (referenceIndex == currentReference) return;
+
+            currentReference = referenceIndex;
+            currentChromosome = chromosome;
+            pcrIndexMap = pcrIndexMaps.computeIfAbsent(referenceIndex, k -> new PcrIndexMap());
+
+            Boolean skipped = skippedChromosomes.get(referenceIndex);
+            if (skipped == null) {
+                skipped = !output.startChromosome(chromosome);
+                skippedChromosomes.put(referenceIndex, skipped);
+            }
+            skipChromosome = skipped;
+        }
+
+        void write(ReadPair pair) throws IOException {
+            PairFeatures features = pair.analyze(annotation, frStrand, pcrIndexMap);
+
+            OutputEvent outputEvent = new OutputEvent();
+            outputEvent.begin();
+            output.write(features);
+            outputEvent.commit();
+            written++;
+        }
+    }
+
+    private static SAMRecord nextRecord(SAMRecordIterator records) {
+        RecordDecodeEvent decodeEvent = new RecordDecodeEvent();
+        decodeEvent.begin();
+        SAMRecord record = records.next();
+        decodeEvent.commit();
+        return record;
+    }
+
+    private static boolean isPairCandidate(SAMRecord record, ReadSampler sampler) {
+        if (!record.getReadPairedFlag()) return false;
+        if (record.getReadUnmappedFlag()) return false;
+        if (record.getMateUnmappedFlag()) return false;
+        if (record.isSecondaryOrSupplementary()) return false;
+        if (record.getReferenceIndex().intValue() != record.getMateReferenceIndex().intValue()) return false;
+        if (record.getMateNegativeStrandFlag() == record.getReadNegativeStrandFlag()) return false;
+        return sampler == null || sampler.keep(record.getReadName());
+    }
+
+    /*
+    Returns the pair if the mate of projection is already waiting, otherwise projection starts waiting for its mate
+     */
+    private static ReadPair pairWithMate(MateProjection projection, Map<String, MateProjection> pendingRecords) {
+        MateProjection pendingRecord = pendingRecords.remove(projection.getReadName());
+
+        if (pendingRecord == null) {
+            pendingRecords.put(projection.getReadName(), projection);
+            return null;
+        }
+
+        return toPair(projection, pendingRecord);
+    }
+
+    /*
+    The mates in first/second order, null if the flags don't make one of each
+     */
+    private static ReadPair toPair(MateProjection mate, MateProjection otherMate) {
+        if (mate.getFirstOfPairFlag() && otherMate.getSecondOfPairFlag())
+            return new ReadPair(mate, otherMate);
+
+        if (mate.getSecondOfPairFlag() && otherMate.getFirstOfPairFlag())
+            return new ReadPair(otherMate, mate);
+
+        return null;
+    }
+
+    /*
+    The records of a run, all of them or those overlapping the regions. Coordinate sorted, indexed input can
+    jump from a chromosome the outputs skip straight to the next one instead of decoding its records.
+     */
+    private static final class RecordSource implements Closeable {
+        private final SamReader sam;
+        private final QueryInterval[] intervals;
+        private final boolean seekable;
+        private final ArrayDeque<SAMRecord> lookahead = new ArrayDeque<>();
+        private SAMRecordIterator records;
+
+        RecordSource(SamReader sam, List<String> regions) {
+            this.sam = sam;
+            this.seekable = sam.hasIndex() && sam.getFileHeader().getSortOrder() == SAMFileHeader.SortOrder.coordinate;
+
+            if (regions.isEmpty()) {
+                this.intervals = null;
+                this.records = sam.iterator();
+                return;
+            }
+
+            if (!sam.hasIndex())
+                throw new IllegalArgumentException("Region queries need an indexed input file");
+
+            SAMSequenceDictionary dictionary = sam.getFileHeader().getSequenceDictionary();
+            QueryInterval[] parsed = new QueryInterval[regions.size()];
+
+            for (int i = 0; i < regions.size(); i++)
+                parsed[i] = parseRegion(regions.get(i), dictionary);
+
+            this.intervals = QueryInterval.optimizeIntervals(parsed);
+            this.records = sam.queryOverlapping(intervals);
+        }
+
+        boolean hasNext() {
+            return !lookahead.isEmpty() || (records != null && records.hasNext());
+        }
+
+        SAMRecord next() {
+            return lookahead.isEmpty() ? nextRecord(records) : lookahead.poll();
+        }
+
+        /*
+        Reads up to count records ahead, next() still returns them afterwards, and tells how the pair candidates
+        among them are ordered. Name grouped means each mate directly follows its partner.
+         */
+        InputOrder lookAhead(int count, ReadSampler sampler) {
+            boolean inCoordinateOrder = true, nameGrouped = true;
+            int candidates = 0;
+            int lastReference = SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX, lastPosition = 0;
+            String lastName = null;
+            Set<String> waiting = new HashSet<>();
+
+            while (lookahead.size() < count && records != null && records.hasNext()) {
+                SAMRecord record = nextRecord(records);
+                lookahead.add(record);
+                if (!isPairCandidate(record, sampler)) continue;
+                candidates++;
+
+                int referenceIndex = record.getReferenceIndex();
+                int position = record.getAlignmentStart();
+                if (referenceIndex < lastReference || (referenceIndex == lastReference && position < lastPosition))
+                    inCoordinateOrder = false;
+
+                lastReference = referenceIndex;
+                lastPosition = position;
+
+                String name = record.getReadName();
+                if (!waiting.add(name)) {
+                    waiting.remove(name);
+                    if (!name.equals(lastName)) nameGrouped = false;
+                }
+                lastName = name;
+            }
+
+            // without candidates there is nothing to go by, collating is always right
+            if (candidates == 0) return InputOrder.UNSORTED;
+            if (inCoordinateOrder) return InputOrder.COORDINATE;
+            return nameGrouped ? InputOrder.NAME_GROUPED : InputOrder.UNSORTED;
+        }
+
+        /*
+        Continues after the last record of referenceIndex, a no-op for input that cannot seek
+         */
+        void skipChromosome(int referenceIndex) {
+            if (!seekable) return;
+
+            List<QueryInterval> rest = new ArrayList<>();
+            if (intervals == null) {
+                int contigs = sam.getFileHeader().getSequenceDictionary().size();
+                for (int i = referenceIndex + 1; i < contigs; i++) rest.add(new QueryInterval(i, 1, -1));
+            } else {
+                for (QueryInterval interval : intervals) if (interval.referenceIndex > referenceIndex) rest.add(interval);
+            }
+
+            records.close();
+            records = rest.isEmpty() ? null : sam.queryOverlapping(rest.toArray(new QueryInterval[0]));
+        }
+
+        @Override
+        public void close() {
+            if (records != null) records.close();
+        }
+    }
+
+    private static QueryInterval parseRegion(String region, SAMSequenceDictionary dictionary) {
+        String contig = region;
+        int start = 1, end = -1;
+
+        int colon = region.lastIndexOf(':');
+        if (colon > 0 && dictionary.getSequenceIndex(region) < 0) {
+            contig = region.substring(0, colon);
+            String[] bounds = region.substring(colon + 1).replace(",", "").split("-");
+
+            start = Integer.parseInt(bounds[0]);
+            if (bounds.length > 1) end = Integer.parseInt(bounds[1]);
+        }
+
+        int index = dictionary.getSequenceIndex(contig);
+        if (index < 0) throw new IllegalArgumentException("Unknown contig in region " + region);
+
+        return new QueryInterval(index, start, end);
+    }
+
+    static SamReader openReader(Path bamPath, ExtractorOptions options) {
+        SamReaderFactory factory = SamReaderFactory
+                .makeDefault()
+                .validationStringency(ValidationStringency.SILENT);
+
+        if (options.getReferenceSource() != null) factory.referenceSource(options.getReferenceSource());
+        return factory.open(bamPath.toFile());
+    }
+}
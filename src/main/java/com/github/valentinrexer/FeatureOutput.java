@@ -0,0 +1,39 @@
+package com.github.valentinrexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface FeatureOutput extends Closeable {
+    /*
+    Called once before the first record with the annotation resolved against the input header
+     */
+    default void bind(ContigAnnotation annotation) {}
+
+    /*
+    Called whenever the input moves on to the next chromosome.
+    Returns false if the records of this chromosome should be skipped.
+     */
+    boolean startChromosome(String chromosome) throws IOException;
+
+    void write(PairFeatures features) throws IOException;
+
+    /*
+    No pair written later on this chromosome starts before position.
+     */
+    default void advance(String chromosome, int position) throws IOException {}
+
+    /*
+    Whether the pairs have to come grouped by chromosome and ordered by their leftmost mate, as they do from
+    coordinate sorted or collated input. An output taking each pair on its own also works on name grouped input,
+    which interleaves the chromosomes.
+     */
+    default boolean needsOrderedPairs() {
+        return true;
+    }
+
+    /*
+    Called once after the whole input was processed successfully.
+    close() alone must not mark anything as complete.
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,197 @@
+package com.github.valentinrexer;
+
+import org.apache.commons.cli.*;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+public class FeatureServer {
+    /*
+    Keeps the annotation loaded between jobs. Jobs arrive as single lines on a unix domain socket:
+        <bam path> TAB <output path> TAB <frstrand: true/false/empty>
+    and are answered with
+        OK TAB <written lines> TAB <millis>   or   ERR TAB <message>
+    once the job is finished.
+     */
+
+    private static final Logger logger = Logger.getLogger(FeatureServer.class.getName());
+
+    private final Path gtfPath;
+    private final Path socketPath;
+    private final ThreadPoolExecutor executor;
+
+    // the interval trees are keyed differently for stranded and unstranded runs,
+    // so each mode gets its own resident annotation, both built from one parse of the GTF
+    private final Map<Boolean, TreeGtf> annotations = new ConcurrentHashMap<>();
+    private TreeGtfBuilder builder;
+
+    public FeatureServer(Path gtfPath, Path socketPath, int workers, int queueSize) {
+        this.gtfPath = gtfPath;
+        this.socketPath = socketPath;
+        this.executor = new ThreadPoolExecutor(
+                workers, workers,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+
+    public void loadAnnotation(boolean stranded) {
+        getAnnotation(stranded ? Boolean.TRUE : null);
+    }
+
+    private TreeGtf getAnnotation(Boolean frStrand) {
+        return annotations.computeIfAbsent(frStrand != null, stranded -> {
+            TreeGtf treeGtf = getBuilder().build(stranded ? Boolean.TRUE : null);
+            logger.info("Loaded " + (stranded ? "stranded" : "unstranded") + " annotation from " + gtfPath);
+            return treeGtf;
+        });
+    }
+
+    private synchronized TreeGtfBuilder getBuilder() {
+        if (builder == null) builder = new TreeGtfBuilder().readInGffFile(gtfPath);
+        return builder;
+    }
+
+    public void serve() throws IOException {
+        Files.deleteIfExists(socketPath);
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor()) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            logger.info("Listening on " + socketPath);
+
+            while (true) {
+                SocketChannel client = server.accept();
+                connections.submit(() -> handle(client));
+            }
+        } finally {
+            executor.shutdown();
+            Files.deleteIfExists(socketPath);
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (client;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(client), StandardCharsets.UTF_8))) {
+
+            String request = reader.readLine();
+            if (request == null) return;
+
+            writer.write(runJob(request));
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            logger.warning("Connection failed: " + e.getMessage());
+        }
+    }
+
+    private String runJob(String request) {
+        String[] parts = request.split("\t", -1);
+        if (parts.length != 3) return "ERR\tmalformed job: " + request;
+
+        Path bamPath = Paths.get(parts[0]);
+        Path outPath = Paths.get(parts[1]);
+        Boolean frStrand = parts[2].isEmpty() ? null : Boolean.parseBoolean(parts[2]);
+
+        Future<Long> job;
+        long startTime = System.currentTimeMillis();
+
+        try {
+            job = executor.submit(() -> FeatureExtractor.run(getAnnotation(frStrand), bamPath, outPath, frStrand));
+        } catch (RejectedExecutionException e) {
+            return "ERR\tserver busy";
+        }
+
+        try {
+            long written = job.get();
+            return "OK\t" + written + "\t" + (System.currentTimeMillis() - startTime);
+        } catch (ExecutionException e) {
+            return "ERR\t" + e.getCause().getMessage();
+        } catch (InterruptedException e) {
+            job.cancel(true);
+            Thread.currentThread().interrupt();
+            return "ERR\tinterrupted";
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+
+        options.addOption(Option.builder("gtf")
+                .hasArg()
+                .argName("gtf_file")
+                .required(true)
+                .desc("GTF annotation file")
+                .build());
+
+        options.addOption(Option.builder("socket")
+                .hasArg()
+                .argName("socket_file")
+                .required(true)
+                .desc("Unix domain socket to listen on")
+                .build());
+
+        options.addOption(Option.builder("threads")
+                .hasArg()
+                .argName("n")
+                .required(false)
+                .desc("Number of jobs running at the same time (default: 1)")
+                .build());
+
+        options.addOption(Option.builder("queue")
+                .hasArg()
+                .argName("n")
+                .required(false)
+                .desc("Number of jobs waiting before new ones are rejected (default: 16)")
+                .build());
+
+        options.addOption(Option.builder("preload")
+                .hasArg()
+                .argName("stranded/unstranded/both")
+                .required(false)
+                .desc("Annotation variants to load before accepting jobs (default: both)")
+                .build());
+
+        CommandLineParser cliParser = new DefaultParser();
+        CommandLine cmd;
+
+        try {
+            cmd = cliParser.parse(options, args);
+        } catch (ParseException e) {
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("bamfeatures serve", options, true);
+            System.err.println("Error: " + e.getMessage());
+            return;
+        }
+
+        FeatureServer server = new FeatureServer(
+                Paths.get(cmd.getOptionValue("gtf")),
+                Paths.get(cmd.getOptionValue("socket")),
+                Integer.parseInt(cmd.getOptionValue("threads", "1")),
+                Integer.parseInt(cmd.getOptionValue("queue", "16"))
+        );
+
+        String preload = cmd.getOptionValue("preload", "both");
+        if (!preload.equals("stranded")) server.loadAnnotation(false);
+        if (!preload.equals("unstranded")) server.loadAnnotation(true);
+
+        server.serve();
+    }
+}
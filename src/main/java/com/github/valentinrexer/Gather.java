@@ -0,0 +1,164 @@
+package com.github.valentinrexer;
+
+import org.apache.commons.cli.*;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+public class Gather {
+    /*
+    Merges the outputs of the slots of a scattered run (-shard i/N) into the final result.
+    Every slot has to be present exactly once, come from the same plan, inputs and options and still
+    match the checksum of its manifest. TSV outputs are concatenated in slot order, counts are summed
+    row by row.
+     */
+
+    private static final Logger logger = Logger.getLogger(Gather.class.getName());
+
+    public static long run(List<Path> inputs, Path outPath) throws IOException {
+        if (inputs.isEmpty()) throw new IllegalArgumentException("No shard outputs given");
+
+        ScatterManifest first = null;
+        Path[] slots = null;
+
+        for (Path input : inputs) {
+            ScatterManifest manifest = ScatterManifest.read(input);
+
+            if (first == null) {
+                first = manifest;
+                slots = new Path[manifest.count()];
+            } else if (manifest.count() != first.count() || !manifest.plan().equals(first.plan()) || !manifest.mode().equals(first.mode())) {
+                throw new IllegalArgumentException(input + " belongs to a different run (shard " + manifest.index() + "/" +
+                        manifest.count() + ", plan " + manifest.plan() + ", " + manifest.mode() + ") than " + inputs.getFirst());
+            } else if (!manifest.run().equals(first.run())) {
+                // same plan, but e.g. another annotation, strandedness or sample fraction
+                throw new IllegalArgumentException(input + " was written with different inputs or options " +
+                        ShardedOutput.changedKeys(first.run(), manifest.run()) + " than " + inputs.getFirst());
+            }
+
+            if (slots[manifest.index()] != null)
+                throw new IllegalArgumentException("Shard " + manifest.index() + " given twice: " + slots[manifest.index()] + " and " + input);
+
+            ScatterManifest actual = ScatterManifest.describe(input, manifest.index(), manifest.count(), manifest.plan(),
+                    manifest.mode(), manifest.run());
+            if (actual.lines() != manifest.lines() || actual.checksum() != manifest.checksum())
+                throw new IllegalArgumentException(input + " does not match its manifest, it was changed after shard " + manifest.index() + " finished");
+
+            slots[manifest.index()] = input;
+        }
+
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < slots.length; i++) if (slots[i] == null) missing.add(i);
+        if (!missing.isEmpty())
+            throw new IllegalArgumentException("Missing shards " + missing + " of " + slots.length);
+
+        logger.info("Gathering " + slots.length + " " + first.mode() + " shards into " + outPath);
+
+        return first.mode().equals(ScatterManifest.COUNTS) ? sumCounts(slots, outPath) : concatenate(slots, outPath);
+    }
+
+    private static long concatenate(Path[] slots, Path outPath) throws IOException {
+        long lines = 0;
+
+        try (OutputStream out = Files.newOutputStream(outPath)) {
+            for (Path slot : slots) {
+                Files.copy(slot, out);
+                lines += ScatterManifest.read(slot).lines();
+            }
+        }
+
+        return lines;
+    }
+
+    /*
+    All slots count against the same annotation, so their rows line up, only the numbers after
+    the label columns ("# name" for the summary lines, type, id and gene_id for the rows) are summed
+     */
+    private static long sumCounts(Path[] slots, Path outPath) throws IOException {
+        BufferedReader[] readers = new BufferedReader[slots.length];
+        long lines = 0;
+
+        try (BufferedWriter writer = Files.newBufferedWriter(outPath)) {
+            for (int i = 0; i < slots.length; i++) readers[i] = Files.newBufferedReader(slots[i]);
+
+            String line;
+            while ((line = readers[0].readLine()) != null) {
+                String[] merged = line.split("\t");
+                int labels = line.startsWith("#") ? 1 : line.startsWith("type\t") ? merged.length : 3;
+
+                for (int i = 1; i < readers.length; i++) {
+                    String other = readers[i].readLine();
+                    String[] parts = other == null ? null : other.split("\t");
+
+                    if (parts == null || parts.length != merged.length || !sameLabels(merged, parts, labels))
+                        throw new IllegalArgumentException("Counts of " + slots[i] + " do not line up with " + slots[0] + " at line " + (lines + 1));
+
+                    for (int column = labels; column < merged.length; column++)
+                        merged[column] = Long.toString(Long.parseLong(merged[column]) + Long.parseLong(parts[column]));
+                }
+
+                writer.write(String.join("\t", merged));
+                writer.newLine();
+                lines++;
+            }
+
+            for (int i = 1; i < readers.length; i++) {
+                if (readers[i].readLine() != null)
+                    throw new IllegalArgumentException(slots[i] + " has more rows than " + slots[0]);
+            }
+        } finally {
+            for (BufferedReader reader : readers) if (reader != null) reader.close();
+        }
+
+        return lines;
+    }
+
+    private static boolean sameLabels(String[] a, String[] b, int labels) {
+        for (int i = 0; i < labels; i++) if (!a[i].equals(b[i])) return false;
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+
+        options.addOption(Option.builder("o")
+                .longOpt("output")
+                .hasArg()
+                .argName("output_file")
+                .required(true)
+                .desc("Merged TSV or counts file")
+                .build());
+
+        CommandLineParser cliParser = new DefaultParser();
+        CommandLine cmd;
+
+        try {
+            cmd = cliParser.parse(options, args);
+            if (cmd.getArgList().isEmpty()) throw new ParseException("No shard outputs given");
+        } catch (ParseException e) {
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("bamfeatures gather -o <output_file> <shard_output>...", options, false);
+            System.err.println("Error: " + e.getMessage());
+            return;
+        }
+
+        List<Path> inputs = new ArrayList<>();
+        for (String arg : cmd.getArgList()) inputs.add(Paths.get(arg));
+
+        try {
+            long lines = run(inputs, Paths.get(cmd.getOptionValue("o")));
+            logger.info("Wrote " + lines + " lines");
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -1,49 +1,58 @@
 package com.github.valentinrexer;
 
-import augmentedTree.*;
 import com.github.valentinrexer.utils.BamFeatureUtils;
+import com.github.valentinrexer.utils.Interval;
+import com.github.valentinrexer.utils.IntervalBuffer;
 
 import java.util.*;
 
-public class Gene implements Interval {
+public final class Gene implements Interval {
+    /*
+    Immutable once constructed, the boundaries and the merged transcriptome are computed up front.
+    Built by TreeGtfBuilder.
+     */
+
     private final String geneId;
     private final String geneName;
     private final String geneBiotype;
     private final char strand;
     private final String chromosome;
-    private final HashMap<String, Transcript> transcripts;
-    private IntervalTree<Region> mergedTranscriptome;
-    private int start = Integer.MAX_VALUE;
-    private int end = Integer.MIN_VALUE;
-
-    public Gene(String geneId, String geneName, String geneBiotype, char strand, String chromosome) {
+    private final List<Transcript> transcripts;
+    private final int[] mergedBlocks;
+    private final int start;
+    private final int end;
+    private final int ordinal;
+
+    public Gene(String geneId, String geneName, String geneBiotype, char strand, String chromosome,
+                List<Transcript> transcripts, int ordinal) {
         this.geneId = geneId;
         this.geneName = geneName;
         this.geneBiotype = geneBiotype;
         this.strand = strand;
         this.chromosome = chromosome;
-        this.transcripts = new HashMap<>();
-    }
+        this.transcripts = List.copyOf(transcripts);
+        this.ordinal = ordinal;
 
-    public void addTranscript(Transcript transcript) {
-        transcripts.put(transcript.getTranscriptId(), transcript);
-    }
-
-    public Transcript getTranscript(String transcriptId) {
-        if (!transcripts.containsKey(transcriptId)) return null;
-        return transcripts.get(transcriptId);
-    }
+        int start = Integer.MAX_VALUE;
+        int end = Integer.MIN_VALUE;
+        List<Region> regions = new ArrayList<>();
 
-    public void computeBoundaries() {
-        for (Transcript transcript : transcripts.values()) {
-            transcript.computeBoundaries();
+        for (Transcript transcript : this.transcripts) {
             start = Math.min(start, transcript.getStart());
             end = Math.max(end, transcript.getEnd());
+            regions.addAll(transcript.getExonVector());
         }
-    }
 
-    public void sortExonsForEachTranscript() {
-        transcripts.values().forEach(Transcript::sortExons);
+        this.start = start;
+        this.end = end;
+
+        regions = BamFeatureUtils.mergeVector(regions);
+
+        mergedBlocks = new int[regions.size() * 2];
+        for (int i = 0; i < regions.size(); i++) {
+            mergedBlocks[2 * i] = regions.get(i).start();
+            mergedBlocks[2 * i + 1] = regions.get(i).end();
+        }
     }
 
     public String getGeneId() { return geneId; }
@@ -51,36 +60,22 @@ public class Gene implements Interval {
     public String getGeneBiotype() { return geneBiotype; }
     public char getStrand() { return strand; }
     public String getChromosome() { return chromosome; }
+    public int getOrdinal() { return ordinal; }
 
     public List<Transcript> getTranscripts() {
-        return transcripts.values().stream().toList();
+        return transcripts;
     }
 
-    public void computeMergedTranscriptome() {
-        List<Region> regions = new ArrayList<>();
-
-        for (Transcript transcript : transcripts.values()) {
-            regions.addAll(transcript.getExonVector());
-        }
-
-        regions = BamFeatureUtils.mergeVector(regions);
-
-        mergedTranscriptome = new IntervalTree<>();
-        mergedTranscriptome.addAll(regions);
+    /*
+    Whether [start, end] lies completely within one block of the merged transcriptome
+     */
+    public boolean isCoveredByMergedTranscriptome(int start, int end) {
+        return IntervalBuffer.covers(mergedBlocks, start, end);
     }
 
-    public List<Region> getMergedTranscriptomeForInterval(Region interval) {
-        if (mergedTranscriptome == null) computeMergedTranscriptome();
-
-        List<Region> intersectingRegions = mergedTranscriptome.getIntervalsIntersecting(interval.start(), interval.end(), new ArrayList<>());
-        List<Region> trimmedRegions = new ArrayList<>();
-
-        for (Region intersectingRegion : intersectingRegions) {
-            trimmedRegions.add(new Region(Math.max(interval.start(), intersectingRegion.start()),
-                    Math.min(interval.end(), intersectingRegion.end())));
-        }
-        return trimmedRegions;
-    }
+    public int getMergedBlockCount() { return mergedBlocks.length / 2; }
+    public int getMergedBlockStart(int i) { return mergedBlocks[2 * i]; }
+    public int getMergedBlockEnd(int i) { return mergedBlocks[2 * i + 1]; }
 
     @Override
     public int getStart() { return start; }
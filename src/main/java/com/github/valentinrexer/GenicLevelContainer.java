@@ -2,4 +2,20 @@ package com.github.valentinrexer;
 
 import java.util.List;
 
-public record GenicLevelContainer(GenicLevel level, String annotationString) {}
+public record GenicLevelContainer(GenicLevel level, Gene gene, List<Transcript> transcripts) {
+    public GenicLevelContainer {
+        transcripts = List.copyOf(transcripts);
+    }
+
+    public String annotationString() {
+        if (gene == null) return null;
+
+        String prefix = gene.getGeneId() + "," + gene.getGeneBiotype() + ":";
+        return switch (level) {
+            case TRANSCRIPTOMIC -> prefix + String.join(",", transcripts.stream().map(Transcript::getTranscriptId).toList());
+            case MERGED_TRANSCRIPTOMIC -> prefix + "MERGED";
+            case INTRONIC -> prefix + "INTRON";
+            case INTERGENIC -> null;
+        };
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.valentinrexer;
+
+import com.github.valentinrexer.utils.LongIntHashMap;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class JunctionOutput implements FeatureOutput {
+    /*
+    Counts the read pairs supporting each distinct splice junction, the span of an N operator (1-based, inclusive),
+    per chromosome and strand and writes them together with whether it is annotated as an intron in the GTF.
+    Deletions are not junctions, even though they also leave a gap between two alignment blocks.
+    Split-inconsistent pairs are not counted. Counts are written and dropped on every chromosome change.
+     */
+
+    private static final char[] STRANDS = {'+', '-', '.'};
+    private static final String HEADER = "chromosome\tstart\tend\tstrand\tcount\tannotated";
+
+    private final Boolean frStrand;
+    private final BufferedWriter writer;
+    private final LongIntHashMap[] counts = {new LongIntHashMap(), new LongIntHashMap(), new LongIntHashMap()};
+    private ContigAnnotation annotation;
+    private String chromosome;
+
+    public JunctionOutput(Path outPath, Boolean frStrand) throws IOException {
+        this.frStrand = frStrand;
+        this.writer = Files.newBufferedWriter(outPath);
+
+        writer.write(HEADER);
+        writer.newLine();
+    }
+
+    @Override
+    public void bind(ContigAnnotation annotation) {
+        this.annotation = annotation;
+    }
+
+    @Override
+    public boolean startChromosome(String chromosome) throws IOException {
+        flush();
+        this.chromosome = chromosome;
+        return true;
+    }
+
+    @Override
+    public void write(PairFeatures features) {
+        if (features.splitInconsistent()) return;
+
+        if (features.getJunctionCount() == 0) return;
+
+        int strandIndex = 2;
+        if (frStrand != null) strandIndex = (frStrand == features.strand()) ? 0 : 1;
+
+        LongIntHashMap strandCounts = counts[strandIndex];
+        for (int i = 0; i < features.getJunctionCount(); i++)
+            strandCounts.addTo(LongIntHashMap.pack(features.getJunctionStart(i), features.getJunctionEnd(i)), 1);
+    }
+
+    private void flush() throws IOException {
+        if (chromosome == null) return;
+
+        for (int s = 0; s < STRANDS.length; s++) {
+            LongIntHashMap strandCounts = counts[s];
+
+            for (long key : strandCounts.sortedKeys()) {
+                int start = LongIntHashMap.high(key);
+                int end = LongIntHashMap.low(key);
+                boolean annotated = annotation.isAnnotatedIntron(chromosome, start, end, STRANDS[s]);
+
+                writer.write(chromosome + "\t" + start + "\t" + end + "\t" + STRANDS[s] + "\t" + strandCounts.get(key) + "\t" + annotated);
+                writer.newLine();
+            }
+
+            strandCounts.clear();
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        flush();
+        chromosome = null;
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -1,22 +1,52 @@
 package com.github.valentinrexer;
 
-import htsjdk.samtools.SAMRecord;
-import htsjdk.samtools.SamReader;
-import htsjdk.samtools.SamReaderFactory;
-import htsjdk.samtools.ValidationStringency;
+import com.github.valentinrexer.plottinghelpers.AnnotationStats;
+import com.github.valentinrexer.profiling.ProfileSummary;
+import com.github.valentinrexer.profiling.Profiler;
 import org.apache.commons.cli.*;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
 public class Main {
+    private static final Logger logger = Logger.getLogger(Main.class.getName());
+
+    // pairs between two progress lines of a sequential run
+    private static final long PROGRESS_INTERVAL = 1_000_000;
+
     public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("serve")) {
+            FeatureServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("profile-summary")) {
+            ProfileSummary.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("submit")) {
+            FeatureClient.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("gather")) {
+            Gather.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("annotation-stats")) {
+            AnnotationStats.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         Options options = new Options();
 
         options.addOption(Option.builder("gtf")
@@ -30,7 +60,7 @@ public class Main {
                 .hasArg()
                 .argName("bam_file")
                 .required(true)
-                .desc("Input BAM file")
+                .desc("Input BAM, SAM or CRAM file")
                 .build());
 
         options.addOption(Option.builder("o")
@@ -48,6 +78,137 @@ public class Main {
                 .desc("FR-stranded flag")
                 .build());
 
+        options.addOption(Option.builder("shards")
+                .required(false)
+                .desc("Write every chromosome to its own shard file before assembling the output")
+                .build());
+
+        options.addOption(Option.builder("resume")
+                .required(false)
+                .desc("Skip chromosomes already completed by an earlier sharded run (implies -shards)")
+                .build());
+
+        options.addOption(Option.builder("counts")
+                .required(false)
+                .desc("Write per gene and per transcript counts instead of one line per read pair")
+                .build());
+
+        options.addOption(Option.builder("coverage")
+                .hasArg()
+                .argName("bedgraph_file")
+                .required(false)
+                .desc("Also write fragment coverage as bedGraph")
+                .build());
+
+        options.addOption(Option.builder("coveragestrands")
+                .required(false)
+                .desc("Split the coverage into a plus and a minus strand bedGraph")
+                .build());
+
+        options.addOption(Option.builder("junctions")
+                .hasArg()
+                .argName("junction_tsv")
+                .required(false)
+                .desc("Also write read pair counts per intron")
+                .build());
+
+        options.addOption(Option.builder("sample")
+                .hasArg()
+                .argName("fraction")
+                .required(false)
+                .desc("Only process the read pairs whose hashed name falls below the fraction")
+                .build());
+
+        options.addOption(Option.builder("seed")
+                .hasArg()
+                .argName("seed")
+                .required(false)
+                .desc("Seed of the -sample hash (default: 0)")
+                .build());
+
+        options.addOption(Option.builder("region")
+                .hasArgs()
+                .argName("chr:start-end")
+                .required(false)
+                .desc("Only process the given regions of an indexed input file")
+                .build());
+
+        options.addOption(Option.builder("contigaliases")
+                .hasArg()
+                .argName("alias_tsv")
+                .required(false)
+                .desc("Two column file mapping annotation seqids to input contig names")
+                .build());
+
+        options.addOption(Option.builder("chrcontigs")
+                .required(false)
+                .desc("Also match contigs that only differ by a chr prefix (chrM also matches MT) if they have no exact match")
+                .build());
+
+        options.addOption(Option.builder("threads")
+                .hasArg()
+                .argName("n")
+                .required(false)
+                .desc("Split the contigs of an indexed, coordinate sorted input into shards and process them in parallel (TSV or counts output)")
+                .build());
+
+        options.addOption(Option.builder("shard")
+                .hasArg()
+                .argName("i/N")
+                .required(false)
+                .desc("Only process part i (0-based) of N of an indexed, coordinate sorted input, merge the N outputs with 'bamfeatures gather'")
+                .build());
+
+        options.addOption(Option.builder("collate")
+                .hasArg()
+                .argName("auto/always/never")
+                .required(false)
+                .desc("Sort the records by chromosome, pair start and read name before pairing (default: auto, unless in coordinate order or grouped by read name and only TSV or counts are written)")
+                .build());
+
+        options.addOption(Option.builder("collatememory")
+                .hasArg()
+                .argName("MB")
+                .required(false)
+                .desc("Memory for buffered records before a sorted run is spilled to disk (default: 512)")
+                .build());
+
+        options.addOption(Option.builder("tmpdir")
+                .hasArg()
+                .argName("directory")
+                .required(false)
+                .desc("Directory for spilled collation runs (default: java.io.tmpdir)")
+                .build());
+
+        options.addOption(Option.builder("tmplimit")
+                .hasArg()
+                .argName("MB")
+                .required(false)
+                .desc("Fail once the spilled collation runs need more disk space than this")
+                .build());
+
+        options.addOption(Option.builder("reference")
+                .hasArg()
+                .argName("fasta_file")
+                .required(false)
+                .desc("Indexed reference FASTA (with .fai) for CRAM input")
+                .build());
+
+        options.addOption(Option.builder("referencecache")
+                .hasArg()
+                .argName("MB")
+                .required(false)
+                .desc("Memory for cached reference contigs shared by all CRAM readers (default: 1024)")
+                .build());
+
+        options.addOption(Option.builder()
+                .longOpt("profile")
+                .hasArg()
+                .argName("jfr_file")
+                .required(false)
+                .desc("Record a flight recording with per stage events and print a summary afterwards")
+                .build());
+
         CommandLineParser cliParser = new DefaultParser();
         CommandLine cmd;
 
@@ -60,71 +221,191 @@ public class Main {
             return;
         }
 
-        Logger logger = Logger.getLogger(Main.class.getName());
+        if (cmd.hasOption("counts") && (cmd.hasOption("shards") || cmd.hasOption("resume"))) {
+            System.err.println("Error: -counts cannot be combined with -shards or -resume");
+            return;
+        }
+
+        if ((cmd.hasOption("coverage") || cmd.hasOption("junctions")) && cmd.hasOption("resume")) {
+            System.err.println("Error: -coverage and -junctions cannot be combined with -resume");
+            return;
+        }
+
+        int threads = Integer.parseInt(cmd.getOptionValue("threads", "1"));
+        boolean parallel = threads > 1 || cmd.hasOption("shard");
+        if (parallel && (cmd.hasOption("shards") || cmd.hasOption("resume") ||
+                cmd.hasOption("coverage") || cmd.hasOption("junctions") || cmd.hasOption("region"))) {
+            System.err.println("Error: -threads and -shard only write the TSV or counts output and cannot be combined with " +
+                    "-shards, -resume, -coverage, -junctions or -region");
+            return;
+        }
 
         Path gtfPath = Paths.get(cmd.getOptionValue("gtf"));
         Path bamPath = Paths.get(cmd.getOptionValue("bam"));
         Path outPath = Paths.get(cmd.getOptionValue("o"));
 
-        Boolean frStrand = null;
-        if (cmd.hasOption("frstrand")) {
-            frStrand = Boolean.parseBoolean(cmd.getOptionValue("frstrand"));
-        }
-
-        TreeGtf treeGtf = new  TreeGtf();
-        treeGtf.readInGffFile(gtfPath, frStrand);
-
-        SamReader sam = SamReaderFactory
-                .makeDefault()
-                .validationStringency(ValidationStringency.SILENT)
-                .open(bamPath.toFile());
-
-        String currentChromosome = "";
-        Map<String, SAMRecord> pendingRecords = new HashMap<>();
-        PcrIndexMap pcrIndexMap = new PcrIndexMap();
-
-        try (BufferedWriter writer = Files.newBufferedWriter(outPath)) {
-            for (SAMRecord record : sam) {
-                if (!record.getReadPairedFlag()) continue;
-                if (record.getReadUnmappedFlag()) continue;
-                if (record.getMateUnmappedFlag()) continue;
-                if (record.isSecondaryOrSupplementary()) continue;
-                if (!record.getReferenceName().equals(record.getMateReferenceName())) continue;
-                if (record.getMateNegativeStrandFlag() == record.getReadNegativeStrandFlag()) continue;
-
-                String chr = record.getReferenceName();
-                if (!chr.equals(currentChromosome)) {
-                    pendingRecords.clear();
-                    currentChromosome = chr;
-                }
-
-                String readName = record.getReadName();
-
-                if (!pendingRecords.containsKey(readName)) {
-                    pendingRecords.put(readName, record);
-                    continue;
-                }
-
-                SAMRecord pendingRecord = pendingRecords.remove(readName);
-                SAMRecord first, second;
-
-                if (record.getFirstOfPairFlag() && pendingRecord.getSecondOfPairFlag()) {
-                    first = record;
-                    second = pendingRecord;
-                } else if (record.getSecondOfPairFlag() && pendingRecord.getFirstOfPairFlag()) {
-                    first = pendingRecord;
-                    second = record;
-                } else {
-                    continue;
-                }
-
-                ReadPair pair = new ReadPair(first, second);
-                String result = pair.process(treeGtf, frStrand, pcrIndexMap);
-
-                writer.write(result);
-                writer.newLine();
-                logger.info("Processed " + record.getReadName());
+        Boolean frStrand = cmd.hasOption("frstrand") ? Boolean.valueOf(cmd.getOptionValue("frstrand")) : null;
+
+        TreeGtf treeGtf = TreeGtf.load(gtfPath, frStrand);
+
+        ExtractorOptions extractorOptions = new ExtractorOptions();
+        if (cmd.hasOption("sample")) {
+            extractorOptions.setSampler(new ReadSampler(
+                    Double.parseDouble(cmd.getOptionValue("sample")),
+                    Long.parseLong(cmd.getOptionValue("seed", "0"))
+            ));
+        }
+
+        ContigAliases contigAliases = new ContigAliases(cmd.hasOption("chrcontigs"));
+        if (cmd.hasOption("contigaliases"))
+            contigAliases.readAliasFile(Paths.get(cmd.getOptionValue("contigaliases")));
+        extractorOptions.setContigAliases(contigAliases);
+
+        if (cmd.hasOption("collate"))
+            extractorOptions.setCollation(ExtractorOptions.Collation.valueOf(cmd.getOptionValue("collate").toUpperCase()));
+        if (cmd.hasOption("collatememory"))
+            extractorOptions.setCollationMemory(Long.parseLong(cmd.getOptionValue("collatememory")) << 20);
+        if (cmd.hasOption("tmpdir"))
+            extractorOptions.setTempDirectory(Paths.get(cmd.getOptionValue("tmpdir")));
+        if (cmd.hasOption("tmplimit"))
+            extractorOptions.setTempLimit(Long.parseLong(cmd.getOptionValue("tmplimit")) << 20);
+
+        if (cmd.hasOption("reference")) {
+            extractorOptions.setReferenceSource(new ReferenceCache(
+                    Paths.get(cmd.getOptionValue("reference")),
+                    Long.parseLong(cmd.getOptionValue("referencecache", "1024")) << 20
+            ));
+        }
+
+        if (cmd.hasOption("region")) {
+            for (String region : cmd.getOptionValues("region")) extractorOptions.addRegion(region);
+        }
+
+        if (cmd.hasOption("shard")) {
+            String[] shard = cmd.getOptionValue("shard").split("/");
+            try {
+                if (shard.length != 2) throw new IllegalArgumentException("-shard expects i/N, e.g. 0/4");
+                extractorOptions.setScatter(Integer.parseInt(shard[0]), Integer.parseInt(shard[1]), describeRun(cmd));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Error: " + e.getMessage());
+                return;
             }
         }
+
+        if (parallel) {
+            runJob(cmd, () -> ParallelExtractor.run(treeGtf, bamPath, outPath, frStrand, extractorOptions, threads, cmd.hasOption("counts")));
+            return;
+        }
+
+        FeatureOutput output = new ProgressOutput(createOutput(cmd, outPath, treeGtf, frStrand));
+        runJob(cmd, () -> FeatureExtractor.run(treeGtf, bamPath, output, frStrand, extractorOptions));
+    }
+
+    /*
+    Logs how far a sequential run got every PROGRESS_INTERVAL pairs and passes everything on to the actual output
+     */
+    private static final class ProgressOutput implements FeatureOutput {
+        private final FeatureOutput output;
+        private long written;
+
+        ProgressOutput(FeatureOutput output) {
+            this.output = output;
+        }
+
+        @Override
+        public void bind(ContigAnnotation annotation) {
+            output.bind(annotation);
+        }
+
+        @Override
+        public boolean startChromosome(String chromosome) throws IOException {
+            return output.startChromosome(chromosome);
+        }
+
+        @Override
+        public void write(PairFeatures features) throws IOException {
+            output.write(features);
+            if (++written % PROGRESS_INTERVAL == 0)
+                logger.info("Processed " + written + " pairs, the last one on " + features.chromosome());
+        }
+
+        @Override
+        public void advance(String chromosome, int position) throws IOException {
+            output.advance(chromosome, position);
+        }
+
+        @Override
+        public boolean needsOrderedPairs() {
+            return output.needsOrderedPairs();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            output.finish();
+            logger.info("Processed " + written + " pairs");
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+
+    private interface Job {
+        void run() throws IOException;
+    }
+
+    private static void runJob(CommandLine cmd, Job job) throws IOException {
+        if (!cmd.hasOption("profile")) {
+            job.run();
+            return;
+        }
+
+        Path profilePath = Paths.get(cmd.getOptionValue("profile"));
+        Profiler profiler = Profiler.start(profilePath);
+        try {
+            job.run();
+        } finally {
+            profiler.close();
+        }
+        ProfileSummary.print(profilePath, System.err, 20);
+    }
+
+    /*
+    Everything that changes the written lines, shards of a run with a different description are not resumed
+    and slots of a scattered run with different descriptions are not gathered
+     */
+    private static Map<String, String> describeRun(CommandLine cmd) throws IOException {
+        Map<String, String> run = new LinkedHashMap<>();
+
+        for (String file : List.of("gtf", "bam", "contigaliases", "reference")) {
+            run.put(file, cmd.hasOption(file) ? ShardedOutput.describeFile(Paths.get(cmd.getOptionValue(file))) : "-");
+        }
+
+        for (String option : List.of("frstrand", "sample", "seed", "collate", "chrcontigs", "region")) {
+            String value = "-";
+            if (cmd.hasOption(option)) value = cmd.getOptionValues(option) == null ? "on" : String.join(" ", cmd.getOptionValues(option));
+            run.put(option, value);
+        }
+
+        return run;
+    }
+
+    private static FeatureOutput createOutput(CommandLine cmd, Path outPath, TreeGtf treeGtf, Boolean frStrand) throws IOException {
+        List<FeatureOutput> outputs = new ArrayList<>();
+        if (cmd.hasOption("counts"))
+            outputs.add(new CountsOutput(outPath, treeGtf));
+        else if (cmd.hasOption("shards") || cmd.hasOption("resume"))
+            outputs.add(new ShardedOutput(outPath, cmd.hasOption("resume"), describeRun(cmd)));
+        else
+            outputs.add(new TsvOutput(outPath));
+
+        if (cmd.hasOption("coverage"))
+            outputs.add(new CoverageOutput(Paths.get(cmd.getOptionValue("coverage")), cmd.hasOption("coveragestrands"), frStrand));
+
+        if (cmd.hasOption("junctions"))
+            outputs.add(new JunctionOutput(Paths.get(cmd.getOptionValue("junctions")), frStrand));
+
+        return outputs.size() == 1 ? outputs.getFirst() : new CompositeOutput(outputs);
     }
 }
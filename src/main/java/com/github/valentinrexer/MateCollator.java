@@ -0,0 +1,163 @@
+package com.github.valentinrexer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.logging.Logger;
+
+public class MateCollator implements Closeable {
+    /*
+    External sort of mate projections by reference index, start of the leftmost mate and read name, so mates
+    end up next to each other and every chromosome comes in one piece in coordinate order of the pairs,
+    whatever the order of the input was. Both mates know the leftmost start from their mate position.
+    Projections are buffered up to memoryLimit bytes, then sorted and spilled as a run to tempDirectory.
+    iterator() k-way merges the spilled runs with the still buffered projections.
+     */
+
+    private static final Logger logger = Logger.getLogger(MateCollator.class.getName());
+
+    private static final Comparator<MateProjection> ORDER = Comparator
+            .comparingInt(MateProjection::getReferenceIndex)
+            .thenComparingInt(MateProjection::getPairStart)
+            .thenComparing(MateProjection::getReadName);
+
+    private static final int IO_BUFFER = 1 << 16;
+
+    private final Path tempDirectory;
+    private final long memoryLimit;
+    private final long tempLimit;
+    private final String[] contigNames;
+
+    private final List<MateProjection> buffer = new ArrayList<>();
+    private long bufferedBytes;
+
+    private final List<Path> runs = new ArrayList<>();
+    private long spilledBytes;
+    private long added;
+
+    private final List<DataInputStream> openRuns = new ArrayList<>();
+
+    public MateCollator(Path tempDirectory, long memoryLimit, long tempLimit, String[] contigNames) {
+        this.tempDirectory = tempDirectory;
+        this.memoryLimit = memoryLimit;
+        this.tempLimit = tempLimit;
+        this.contigNames = contigNames;
+    }
+
+    public void add(MateProjection projection) throws IOException {
+        buffer.add(projection);
+        bufferedBytes += projection.estimateSize();
+        added++;
+
+        if (bufferedBytes >= memoryLimit) spill();
+    }
+
+    private void spill() throws IOException {
+        buffer.sort(ORDER);
+
+        Path run = Files.createTempFile(tempDirectory, "bamfeatures-run", ".bin");
+        runs.add(run);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), IO_BUFFER))) {
+            out.writeInt(buffer.size());
+            for (MateProjection projection : buffer) projection.writeTo(out);
+        }
+
+        spilledBytes += Files.size(run);
+        if (spilledBytes > tempLimit)
+            throw new IOException("Collation needs more than the temp space limit of " + tempLimit + " bytes in " + tempDirectory);
+
+        logger.info("Spilled run " + runs.size() + " with " + buffer.size() + " records (" + spilledBytes + " bytes on disk so far)");
+
+        buffer.clear();
+        bufferedBytes = 0;
+    }
+
+    public long getAddedCount() { return added; }
+
+    public int getRunCount() { return runs.size(); }
+
+    /*
+    All added projections in collation order. Can only be called once, nothing may be added afterwards.
+     */
+    public Iterator<MateProjection> iterator() throws IOException {
+        buffer.sort(ORDER);
+
+        // one cursor per run plus one for the buffer, ordered by their current head
+        PriorityQueue<Cursor> heads = new PriorityQueue<>((a, b) -> ORDER.compare(a.head, b.head));
+
+        Cursor inMemory = new Cursor(buffer.iterator());
+        if (inMemory.advance()) heads.add(inMemory);
+
+        for (Path run : runs) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), IO_BUFFER));
+            openRuns.add(in);
+
+            Cursor cursor = new Cursor(in, in.readInt());
+            if (cursor.advance()) heads.add(cursor);
+        }
+
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public MateProjection next() {
+                Cursor cursor = heads.poll();
+                if (cursor == null) throw new NoSuchElementException();
+
+                MateProjection next = cursor.head;
+                if (cursor.advance()) heads.add(cursor);
+                return next;
+            }
+        };
+    }
+
+    private final class Cursor {
+        private final Iterator<MateProjection> memory;
+        private final DataInputStream in;
+        private int remaining;
+        private MateProjection head;
+
+        Cursor(Iterator<MateProjection> memory) {
+            this.memory = memory;
+            this.in = null;
+        }
+
+        Cursor(DataInputStream in, int count) {
+            this.memory = null;
+            this.in = in;
+            this.remaining = count;
+        }
+
+        boolean advance() {
+            if (memory != null) {
+                head = memory.hasNext() ? memory.next() : null;
+                return head != null;
+            }
+
+            if (remaining == 0) return false;
+            remaining--;
+
+            try {
+                head = MateProjection.readFrom(in, contigNames);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (DataInputStream in : openRuns) in.close();
+        for (Path run : runs) Files.deleteIfExists(run);
+
+        openRuns.clear();
+        runs.clear();
+        buffer.clear();
+    }
+}
@@ -0,0 +1,182 @@
+package com.github.valentinrexer;
+
+import com.github.valentinrexer.utils.IntervalBuffer;
+import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMFlag;
+import htsjdk.samtools.SAMRecord;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+public final class MateProjection {
+    /*
+    The part of a SAMRecord a ReadPair needs. Sequence, qualities and tags are dropped, so a mate
+    waiting for its partner only keeps its name, a few ints, the packed alignment blocks and its N spans.
+     */
+
+    private static final int[] NO_SKIPS = new int[0];
+
+    private final String readName;
+    private final String chromosome;
+    private final int referenceIndex;
+    private final int flags;
+    private final int alignmentStart;
+    private final int alignmentEnd;
+    private final int mateAlignmentStart;
+    private final int clipping;
+    private final int mismatches;
+
+    // reference start and inclusive end of every alignment block: [start0, end0, start1, end1, ...]
+    private final int[] blocks;
+
+    // reference spans of the N operators, packed like the blocks. Gaps between blocks also come from D operators
+    private final int[] skips;
+
+    private MateProjection(String readName, String chromosome, int referenceIndex, int flags, int alignmentStart, int alignmentEnd,
+                           int mateAlignmentStart, int clipping, int mismatches, int[] blocks, int[] skips) {
+        this.readName = readName;
+        this.chromosome = chromosome;
+        this.referenceIndex = referenceIndex;
+        this.flags = flags;
+        this.alignmentStart = alignmentStart;
+        this.alignmentEnd = alignmentEnd;
+        this.mateAlignmentStart = mateAlignmentStart;
+        this.clipping = clipping;
+        this.mismatches = mismatches;
+        this.blocks = blocks;
+        this.skips = skips;
+    }
+
+    public static MateProjection of(SAMRecord record) {
+        List<AlignmentBlock> alignmentBlocks = record.getAlignmentBlocks();
+        int[] blocks = new int[alignmentBlocks.size() * 2];
+
+        for (int i = 0; i < alignmentBlocks.size(); i++) {
+            AlignmentBlock block = alignmentBlocks.get(i);
+            blocks[2 * i] = block.getReferenceStart();
+            blocks[2 * i + 1] = block.getReferenceStart() + block.getLength() - 1;
+        }
+
+        Integer nm = record.getIntegerAttribute("NM");
+
+        return new MateProjection(
+                record.getReadName(),
+                record.getReferenceName(),
+                record.getReferenceIndex(),
+                record.getFlags(),
+                record.getAlignmentStart(),
+                record.getAlignmentEnd(),
+                record.getMateAlignmentStart(),
+                getClippingCount(record),
+                nm == null ? 0 : nm,
+                blocks,
+                getSkips(record)
+        );
+    }
+
+    /*
+    Compact binary form for spilling to disk. The chromosome is stored as its reference index,
+    readFrom needs the contig names of the same header to restore it.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(readName);
+        out.writeInt(referenceIndex);
+        out.writeInt(flags);
+        out.writeInt(alignmentStart);
+        out.writeInt(alignmentEnd);
+        out.writeInt(mateAlignmentStart);
+        out.writeInt(clipping);
+        out.writeInt(mismatches);
+        out.writeInt(blocks.length);
+        for (int block : blocks) out.writeInt(block);
+        out.writeInt(skips.length);
+        for (int skip : skips) out.writeInt(skip);
+    }
+
+    public static MateProjection readFrom(DataInput in, String[] contigNames) throws IOException {
+        String readName = in.readUTF();
+        int referenceIndex = in.readInt();
+        int flags = in.readInt();
+        int alignmentStart = in.readInt();
+        int alignmentEnd = in.readInt();
+        int mateAlignmentStart = in.readInt();
+        int clipping = in.readInt();
+        int mismatches = in.readInt();
+
+        int[] blocks = new int[in.readInt()];
+        for (int i = 0; i < blocks.length; i++) blocks[i] = in.readInt();
+
+        int[] skips = new int[in.readInt()];
+        for (int i = 0; i < skips.length; i++) skips[i] = in.readInt();
+
+        return new MateProjection(readName, contigNames[referenceIndex], referenceIndex, flags, alignmentStart,
+                alignmentEnd, mateAlignmentStart, clipping, mismatches, blocks, skips);
+    }
+
+    /*
+    Rough heap footprint in bytes, used to bound the memory of the collation buffer
+     */
+    public long estimateSize() {
+        return 96 + 2L * readName.length() + 4L * (blocks.length + skips.length);
+    }
+
+    private static int[] getSkips(SAMRecord record) {
+        List<CigarElement> cigar = record.getCigar().getCigarElements();
+        IntervalBuffer skips = null;
+        int position = record.getAlignmentStart();
+
+        for (CigarElement element : cigar) {
+            CigarOperator operator = element.getOperator();
+
+            if (operator == CigarOperator.N) {
+                if (skips == null) skips = new IntervalBuffer(1);
+                skips.add(position, position + element.getLength() - 1);
+            }
+            if (operator.consumesReferenceBases()) position += element.getLength();
+        }
+
+        return skips == null ? NO_SKIPS : skips.toArray();
+    }
+
+    private static int getClippingCount(SAMRecord record) {
+        List<CigarElement> cigar = record.getCigar().getCigarElements();
+        int clipped = 0;
+
+        for (CigarElement element : cigar) {
+            CigarOperator operator = element.getOperator();
+
+            if (operator == CigarOperator.S || operator == CigarOperator.H) {
+                clipped += element.getLength();
+            }
+        }
+
+        return clipped;
+    }
+
+    public String getReadName() { return readName; }
+    public String getChromosome() { return chromosome; }
+    public int getReferenceIndex() { return referenceIndex; }
+    public int getAlignmentStart() { return alignmentStart; }
+    public int getAlignmentEnd() { return alignmentEnd; }
+    public int getMateAlignmentStart() { return mateAlignmentStart; }
+    public int getClipping() { return clipping; }
+
+    // start of the leftmost mate, the same for both mates of a pair
+    public int getPairStart() { return Math.min(alignmentStart, mateAlignmentStart); }
+    public int getMismatches() { return mismatches; }
+
+    public boolean getFirstOfPairFlag() { return (flags & SAMFlag.FIRST_OF_PAIR.intValue()) != 0; }
+    public boolean getSecondOfPairFlag() { return (flags & SAMFlag.SECOND_OF_PAIR.intValue()) != 0; }
+    public boolean getReadNegativeStrandFlag() { return (flags & SAMFlag.READ_REVERSE_STRAND.intValue()) != 0; }
+
+    public void copyBlocksTo(IntervalBuffer out) { out.addAll(blocks); }
+    public void copySkipsTo(IntervalBuffer out) { out.addAll(skips); }
+
+    public int getBlockCount() { return blocks.length / 2; }
+    public int getBlockStart(int i) { return blocks[2 * i]; }
+    public int getBlockEnd(int i) { return blocks[2 * i + 1]; }
+}
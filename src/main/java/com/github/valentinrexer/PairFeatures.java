@@ -0,0 +1,85 @@
+package com.github.valentinrexer;
+
+import java.util.List;
+
+public record PairFeatures(
+        String readName,
+        String chromosome,
+        boolean strand,
+        int[] blocks,
+        int[] introns,
+        int[] junctions,
+        boolean splitInconsistent,
+        int mismatches,
+        int clipping,
+        int nSplit,
+        List<GenicLevelContainer> genicLevels,
+        int geneDistance,
+        boolean antisense,
+        int pcrIndex
+) {
+    /*
+    strand is the strand of the first read, blocks the merged block vector of the pair, introns
+    the distinct gaps between the blocks of both reads and junctions only those that come from N operators,
+    all packed as [start0, end0, start1, end1, ...]
+    Immutable: the array accessors return copies, the outputs read single blocks and junctions through the
+    indexed getters instead. blocks is also the key of the pair in its PcrIndexMap.
+     */
+
+    public PairFeatures {
+        genicLevels = List.copyOf(genicLevels);
+    }
+
+    @Override
+    public int[] blocks() { return blocks.clone(); }
+
+    @Override
+    public int[] introns() { return introns.clone(); }
+
+    @Override
+    public int[] junctions() { return junctions.clone(); }
+
+    public int getBlockCount() { return blocks.length / 2; }
+    public int getBlockStart(int i) { return blocks[2 * i]; }
+    public int getBlockEnd(int i) { return blocks[2 * i + 1]; }
+
+    public int getJunctionCount() { return junctions.length / 2; }
+    public int getJunctionStart(int i) { return junctions[2 * i]; }
+    public int getJunctionEnd(int i) { return junctions[2 * i + 1]; }
+
+    public static PairFeatures splitInconsistent(String readName, String chromosome, boolean strand, int[] blocks) {
+        return new PairFeatures(readName, chromosome, strand, blocks, new int[0], new int[0], true, 0, 0, 0, List.of(), 0, false, 0);
+    }
+
+    public GenicLevel level() {
+        if (genicLevels.isEmpty()) return null;
+        return genicLevels.getFirst().level();
+    }
+
+    public int geneCount() {
+        return level() == GenicLevel.INTERGENIC ? 0 : genicLevels.size();
+    }
+
+    public String toTsvLine() {
+        if (splitInconsistent) return readName + "\tsplit-inconsistent:true";
+
+        String geneOutputString;
+        if (level() == GenicLevel.INTERGENIC) {
+            geneOutputString = "gdist:" + geneDistance + "\tantisense:" + antisense;
+        } else {
+            StringBuilder associatedGenesString = new StringBuilder();
+            for (GenicLevelContainer container : genicLevels)
+                associatedGenesString.append(container.annotationString()).append("|");
+
+            geneOutputString = associatedGenesString.substring(0, associatedGenesString.length() - 1);
+        }
+
+        return readName +
+                "\tmm:" + mismatches +
+                "\tclipping:" + clipping +
+                "\tgcount:" + geneCount() +
+                "\tnsplit:" + nSplit +
+                "\t" + geneOutputString +
+                "\tpcrindex:" + pcrIndex;
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.valentinrexer;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SamReader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+public class ParallelExtractor {
+    /*
+    Runs the shards planned by ShardPlanner on a fixed number of threads, each with its own reader and part file,
+    and concatenates the parts in shard order. Pairs are written per shard instead of in the order their
+    right mate appears, everything else, including the PCR indices, matches a sequential run.
+
+    A scattered run (ExtractorOptions.setScatter) plans a fixed number of shards per slot, independent of the
+    thread count, so every process computes the same plan from the header and index and takes its own
+    contiguous part of it. The slot records its completion in a ScatterManifest for Gather.
+     */
+
+    private static final Logger logger = Logger.getLogger(ParallelExtractor.class.getName());
+
+    // more shards than threads, so a slow shard at the end leaves fewer threads idle
+    private static final int SHARDS_PER_THREAD = 4;
+    private static final int SHARDS_PER_SCATTER_SLOT = 64;
+
+    public static long run(TreeGtf treeGtf, Path bamPath, Path outPath, Boolean frStrand,
+                           ExtractorOptions options, int threads, boolean counts) throws IOException {
+        int scatterCount = options.getScatterCount();
+        List<ShardPlanner.Shard> shards;
+        String planFingerprint = null;
+        ContigAnnotation annotation;
+
+        try (SamReader sam = FeatureExtractor.openReader(bamPath, options)) {
+            if (sam.getFileHeader().getSortOrder() != SAMFileHeader.SortOrder.coordinate)
+                throw new IllegalArgumentException("Parallel runs need coordinate sorted input");
+
+            if (scatterCount > 0) {
+                List<ShardPlanner.Shard> plan = ShardPlanner.plan(sam, scatterCount * SHARDS_PER_SCATTER_SLOT);
+                shards = ShardPlanner.assign(plan, options.getScatterIndex(), scatterCount);
+                planFingerprint = ShardPlanner.fingerprint(plan);
+            } else {
+                shards = ShardPlanner.plan(sam, threads * SHARDS_PER_THREAD);
+            }
+
+            annotation = treeGtf.bind(sam.getFileHeader().getSequenceDictionary(), options.getContigAliases());
+        }
+
+        if (scatterCount > 0) {
+            // drop the manifest of an earlier attempt, the slot must not look finished while it is rewritten
+            Files.deleteIfExists(ScatterManifest.pathOf(outPath));
+            logger.info("Shard " + options.getScatterIndex() + "/" + scatterCount + " owns " + shards.size() +
+                    " spans" + (shards.isEmpty() ? "" : " from " + shards.getFirst() + " to " + shards.getLast()));
+        }
+
+        logger.info("Planned " + shards.size() + " shards for " + threads + " threads");
+
+        long written = counts
+                ? runCounts(annotation, treeGtf, bamPath, outPath, frStrand, options, threads, shards)
+                : runTsv(annotation, bamPath, outPath, frStrand, options, threads, shards);
+
+        if (scatterCount > 0) {
+            ScatterManifest.describe(outPath, options.getScatterIndex(), scatterCount, planFingerprint,
+                    counts ? ScatterManifest.COUNTS : ScatterManifest.TSV, options.getScatterRun()).write(outPath);
+        }
+
+        return written;
+    }
+
+    private static long runTsv(ContigAnnotation annotation, Path bamPath, Path outPath, Boolean frStrand,
+                               ExtractorOptions options, int threads, List<ShardPlanner.Shard> shards) throws IOException {
+        List<Path> parts = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++)
+            parts.add(outPath.resolveSibling(outPath.getFileName() + ".part" + i));
+
+        try {
+            List<Callable<Long>> jobs = new ArrayList<>();
+            for (int i = 0; i < shards.size(); i++) {
+                ShardPlanner.Shard shard = shards.get(i);
+                Path part = parts.get(i);
+
+                jobs.add(() -> {
+                    try (SamReader sam = FeatureExtractor.openReader(bamPath, options); TsvOutput output = new TsvOutput(part)) {
+                        long shardWritten = FeatureExtractor.runShard(annotation, sam, shard, output, frStrand, options.getSampler());
+                        output.finish();
+                        return shardWritten;
+                    }
+                });
+            }
+
+            long written = invokeAll(jobs, threads);
+
+            try (OutputStream out = Files.newOutputStream(outPath)) {
+                for (Path part : parts) Files.copy(part, out);
+            }
+
+            return written;
+        } finally {
+            for (Path part : parts) Files.deleteIfExists(part);
+        }
+    }
+
+    /*
+    CountsOutput keeps separate counters per worker thread, so all shards count into the same one
+    and it sums them once every shard is done
+     */
+    private static long runCounts(ContigAnnotation annotation, TreeGtf treeGtf, Path bamPath, Path outPath, Boolean frStrand,
+                                  ExtractorOptions options, int threads, List<ShardPlanner.Shard> shards) throws IOException {
+        CountsOutput output = new CountsOutput(outPath, treeGtf);
+
+        List<Callable<Long>> jobs = new ArrayList<>();
+        for (ShardPlanner.Shard shard : shards) {
+            jobs.add(() -> {
+                try (SamReader sam = FeatureExtractor.openReader(bamPath, options)) {
+                    return FeatureExtractor.runShard(annotation, sam, shard, output, frStrand, options.getSampler());
+                }
+            });
+        }
+
+        long written = invokeAll(jobs, threads);
+        output.finish();
+        return written;
+    }
+
+    private static long invokeAll(List<Callable<Long>> jobs, int threads) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long written = 0;
+
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (Callable<Long> job : jobs) futures.add(executor.submit(job));
+            for (Future<Long> future : futures) written += future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the shards", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return written;
+    }
+}
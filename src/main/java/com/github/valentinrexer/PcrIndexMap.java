@@ -3,38 +3,55 @@ package com.github.valentinrexer;
 import java.util.*;
 
 public class PcrIndexMap {
-    private final Map<Boolean, Map<Set<Region>, Integer>> pcrIndexMap;
+    // merged block vector packed as [start0, end0, start1, end1, ...], compared by content
+    private record BlockKey(int[] blocks) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof BlockKey other && Arrays.equals(blocks, other.blocks);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(blocks);
+        }
+    }
+
+    private final Map<Boolean, Map<BlockKey, Integer>> pcrIndexMap;
 
     public PcrIndexMap() {
         pcrIndexMap = new HashMap<>();
     }
 
-    public int getPcrIndex(Set<Region> regionVector, Boolean strand) {
-        if (! pcrIndexMap.containsKey(strand))
-            pcrIndexMap.put(strand, new HashMap<>());
-
-        var map = pcrIndexMap.get(strand);
+    /*
+    The block vector has to be sorted and free of duplicates, e.g. the merged vector of a ReadPair.
+    It is kept as key, so it must not be modified afterwards.
+     */
+    public int getPcrIndex(int[] blockVector, Boolean strand) {
+        var map = pcrIndexMap.computeIfAbsent(strand, k -> new HashMap<>());
+        return map.merge(new BlockKey(blockVector), 1, Integer::sum) - 1;
+    }
 
-        if (!map.containsKey(regionVector)) {
-            map.put(regionVector, 1);
-            return 0;
-        }
-        map.put(regionVector, map.get(regionVector) + 1);
-        return map.get(regionVector) - 1;
+    public int getPcrIndex(Set<Region> regionVector, Boolean strand) {
+        return getPcrIndex(pack(regionVector), strand);
     }
 
     public int getPcrIndex(List<Region> regionVectorList, Boolean strand) {
-        var regionVector = new HashSet<>(regionVectorList);
-        if (!pcrIndexMap.containsKey(strand))
-            pcrIndexMap.put(strand, new HashMap<>());
+        return getPcrIndex(pack(regionVectorList), strand);
+    }
 
-        var map = pcrIndexMap.get(strand);
+    private static int[] pack(Collection<Region> regions) {
+        var sorted = new ArrayList<>(new HashSet<>(regions));
+        sorted.sort(Comparator.comparingInt(Region::start).thenComparingInt(Region::end));
 
-        if (!map.containsKey(regionVector)) {
-            map.put(regionVector, 1);
-            return 0;
+        int[] blocks = new int[sorted.size() * 2];
+        for (int i = 0; i < sorted.size(); i++) {
+            blocks[2 * i] = sorted.get(i).start();
+            blocks[2 * i + 1] = sorted.get(i).end();
         }
-        map.put(regionVector, map.get(regionVector) + 1);
-        return map.get(regionVector) - 1;
+        return blocks;
+    }
+
+    public void clear() {
+        pcrIndexMap.clear();
     }
 }
@@ -1,108 +1,135 @@
 package com.github.valentinrexer;
 
-import com.github.valentinrexer.utils.BamFeatureUtils;
-import htsjdk.samtools.AlignmentBlock;
-import htsjdk.samtools.CigarElement;
-import htsjdk.samtools.CigarOperator;
+import com.github.valentinrexer.profiling.CandidateGenesEvent;
+import com.github.valentinrexer.profiling.PcrIndexEvent;
+import com.github.valentinrexer.profiling.TranscriptMatchEvent;
+import com.github.valentinrexer.utils.IntervalBuffer;
 import htsjdk.samtools.SAMRecord;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class ReadPair {
-    private final SAMRecord firstRecord;
-    private final SAMRecord lastRecord;
-    private final Region firstRecordRegion;
-    private final Region lastRecordRegion;
-    private final List<Region> pairRegionVector;
-    private final List<Region> regionVectorFirst;
-    private final List<Region> regionVectorLast;
-    private final Set<Region> intronsFirst;
-    private final Set<Region> intronsLast;
+    // per thread scratch space for the interval work, so a pair only allocates its three block vectors
+    private static final class Scratch {
+        final IntervalBuffer blocks = new IntervalBuffer();
+        final IntervalBuffer intronsFirst = new IntervalBuffer();
+        final IntervalBuffer intronsLast = new IntervalBuffer();
+        final IntervalBuffer transcriptBlocks = new IntervalBuffer();
+        final IntervalBuffer introns = new IntervalBuffer();
+        final IntervalBuffer junctions = new IntervalBuffer();
+    }
+
+    private static final int[] NO_INTRONS = new int[0];
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final MateProjection firstRecord;
+    private final MateProjection lastRecord;
+
+    // merged blocks, packed as [start0, end0, start1, end1, ...]
+    private final int[] pairRegionVector;
+    private final int[] regionVectorFirst;
+    private final int[] regionVectorLast;
     private final String chromosome;
+    private final int referenceIndex;
     private final boolean strand;
 
     public ReadPair(SAMRecord firstRecord, SAMRecord lastRecord) {
+        this(MateProjection.of(firstRecord), MateProjection.of(lastRecord));
+    }
+
+    public ReadPair(MateProjection firstRecord, MateProjection lastRecord) {
         this.firstRecord = firstRecord;
         this.lastRecord = lastRecord;
 
-        regionVectorFirst = getRegionVector(firstRecord);
-        regionVectorLast = getRegionVector(lastRecord);
-        strand = !firstRecord.getReadNegativeStrandFlag();
+        Scratch scratch = SCRATCH.get();
+        IntervalBuffer blocks = scratch.blocks;
+
+        blocks.clear();
+        firstRecord.copyBlocksTo(blocks);
+        blocks.sortAndMerge();
+        regionVectorFirst = blocks.toArray();
 
-        List<Region> regionVector = new ArrayList<>(regionVectorFirst);
-        regionVector.addAll(regionVectorLast);
-        regionVector = BamFeatureUtils.mergeVector(regionVector);
-        this.pairRegionVector = regionVector;
-        this.chromosome = firstRecord.getReferenceName();
+        blocks.clear();
+        lastRecord.copyBlocksTo(blocks);
+        blocks.sortAndMerge();
+        regionVectorLast = blocks.toArray();
 
-        firstRecordRegion = new Region(firstRecord.getAlignmentStart(), firstRecord.getAlignmentEnd());
-        lastRecordRegion = new Region(lastRecord.getAlignmentStart(), lastRecord.getAlignmentEnd());
+        blocks.addAll(regionVectorFirst);
+        blocks.sortAndMerge();
+        pairRegionVector = blocks.toArray();
+
+        strand = !firstRecord.getReadNegativeStrandFlag();
+        this.chromosome = firstRecord.getChromosome();
+        this.referenceIndex = firstRecord.getReferenceIndex();
+    }
 
-        this.intronsFirst = getIntrons(firstRecord);
-        this.intronsLast = getIntrons(lastRecord);
+    public String process(ContigAnnotation annotation, Boolean frStrand, PcrIndexMap pcrIndexMap) {
+        return analyze(annotation, frStrand, pcrIndexMap).toTsvLine();
     }
 
-    public String process(TreeGtf treeGtf, Boolean frStrand, PcrIndexMap pcrIndexMap) {
+    public PairFeatures analyze(ContigAnnotation annotation, Boolean frStrand, PcrIndexMap pcrIndexMap) {
         Integer nSplit = getNSplit();
-        if (nSplit == null) return firstRecord.getReadName() + "\tsplit-inconsistent:true";
+        if (nSplit == null) return PairFeatures.splitInconsistent(firstRecord.getReadName(), chromosome, strand, pairRegionVector);
+        int[] introns = nSplit == 0 ? NO_INTRONS : getSplicedIntrons();
+        int[] junctions = nSplit == 0 ? NO_INTRONS : getSpliceJunctions();
 
         int mm = getMismatches();
         int clipping = getTotalClipped();
-        var geneLvl = getGeneAnnotation(treeGtf, frStrand);
-        int gCount;
-        String geneOutputString;
+        var geneLvl = getGeneAnnotation(annotation, frStrand);
+        int geneDistance = 0;
+        boolean hasAntisenseGene = false;
 
         if (geneLvl.getFirst().level() == GenicLevel.INTERGENIC) {
-            gCount = 0;
-            var geneDistance = getGeneDistance(chromosome, treeGtf, frStrand);
-            geneOutputString = "gdist:" + geneDistance;
-
-            var hasAntisenseGene = hasAntiSenseGene(treeGtf, frStrand);
-            geneOutputString += "\tantisense:" + hasAntisenseGene;
-        }
-        else {
-            gCount = geneLvl.size();
-            StringBuilder associatedGenesString = new StringBuilder();
-            for (GenicLevelContainer container : geneLvl)
-                associatedGenesString.append(container.annotationString()).append("|");
-
-            geneOutputString = associatedGenesString.substring(0, associatedGenesString.length() - 1);
+            geneDistance = getGeneDistance(annotation, frStrand);
+            hasAntisenseGene = hasAntiSenseGene(annotation, frStrand);
         }
 
         Boolean indexStrand = frStrand == null ? null : (frStrand == strand);
+        PcrIndexEvent pcrIndexEvent = new PcrIndexEvent();
+        pcrIndexEvent.begin();
         int pcrIndex = pcrIndexMap.getPcrIndex(pairRegionVector, indexStrand);
-
-        return firstRecord.getReadName() +
-                "\tmm:" + mm +
-                "\tclipping:" + clipping +
-                "\tgcount:"+ gCount +
-                "\tnsplit:" + nSplit +
-                "\t" + geneOutputString +
-                "\tpcrindex:" + pcrIndex;
+        pcrIndexEvent.commit();
+
+        return new PairFeatures(
+                firstRecord.getReadName(),
+                chromosome,
+                strand,
+                pairRegionVector,
+                introns,
+                junctions,
+                false,
+                mm,
+                clipping,
+                nSplit,
+                geneLvl,
+                geneDistance,
+                hasAntisenseGene,
+                pcrIndex
+        );
     }
 
-    private boolean hasAntiSenseGene(TreeGtf treeGtf, Boolean frStrand) {
+    private boolean hasAntiSenseGene(ContigAnnotation annotation, Boolean frStrand) {
         if (frStrand == null) return false;
-        var annotation = getGeneAnnotation(treeGtf, !frStrand);
-        return annotation.getFirst().level() != GenicLevel.INTERGENIC;
+        var antisenseAnnotation = getGeneAnnotation(annotation, !frStrand);
+        return antisenseAnnotation.getFirst().level() != GenicLevel.INTERGENIC;
     }
     
-    private int getGeneDistance(String chr, TreeGtf treeGtf, Boolean frStrand) {
-        var readBounds = getMinStartMaxEnd();
-        var leftNeighbor = treeGtf.getLeftNeighbor(chr, readBounds.start(), readBounds.end(), frStrand);
-        var rightNeighbor = treeGtf.getRightNeighbor(chr, readBounds.start(), readBounds.end(), frStrand);
+    private int getGeneDistance(ContigAnnotation annotation, Boolean frStrand) {
+        int pairStart = getPairStart(), pairEnd = getPairEnd();
+        var leftNeighbor = annotation.getLeftNeighbor(referenceIndex, pairStart, pairEnd, frStrand);
+        var rightNeighbor = annotation.getRightNeighbor(referenceIndex, pairStart, pairEnd, frStrand);
 
         int minLeftDist = Integer.MAX_VALUE, minRightDist = Integer.MAX_VALUE;
         for (Gene neighbor : leftNeighbor) {
-            var dist = readBounds.getStart() - neighbor.getEnd();
+            var dist = pairStart - neighbor.getEnd();
             if (dist < 0) return 0;
 
             minRightDist = Math.min(minRightDist, dist);
         }
 
         for (Gene neighbor : rightNeighbor) {
-            var dist = neighbor.getStart() - readBounds.end();
+            var dist = neighbor.getStart() - pairEnd;
             if (dist < 0) return 0;
             minLeftDist = Math.min(minLeftDist, dist);
         }
@@ -110,15 +137,15 @@ public class ReadPair {
         return Math.min(minLeftDist, minRightDist);
     } 
 
-    private List<GenicLevelContainer> getGeneAnnotation(TreeGtf treeGtf, Boolean frStrand) {
+    private List<GenicLevelContainer> getGeneAnnotation(ContigAnnotation annotation, Boolean frStrand) {
         Boolean lookupStrand =
                 frStrand == null ? null : (frStrand == strand);
 
-        var candidates = getCandidateGenes(treeGtf, lookupStrand);
+        var candidates = getCandidateGenes(annotation, lookupStrand);
         var genicLevelMapping = new HashMap<GenicLevel, List<GenicLevelContainer>>();
 
         for (Gene candidate : candidates) {
-            GenicLevelContainer container = getGenicLevel(candidate);
+            GenicLevelContainer container = getGenicLevel(candidate, candidates.size());
 
             genicLevelMapping
                     .computeIfAbsent(container.level(), k -> new ArrayList<>())
@@ -128,163 +155,139 @@ public class ReadPair {
         if (genicLevelMapping.containsKey(GenicLevel.TRANSCRIPTOMIC)) return genicLevelMapping.get(GenicLevel.TRANSCRIPTOMIC);
         if (genicLevelMapping.containsKey(GenicLevel.MERGED_TRANSCRIPTOMIC)) return genicLevelMapping.get(GenicLevel.MERGED_TRANSCRIPTOMIC);
         if (genicLevelMapping.containsKey(GenicLevel.INTRONIC)) return genicLevelMapping.get(GenicLevel.INTRONIC);
-        return List.of(new GenicLevelContainer(GenicLevel.INTERGENIC, null));
+        return List.of(new GenicLevelContainer(GenicLevel.INTERGENIC, null, List.of()));
     }
 
-    private GenicLevelContainer getGenicLevel(Gene candidateGene) {
-        String transcriptomicString = isTranscriptomic(candidateGene);
-        if (transcriptomicString != null) return new GenicLevelContainer(GenicLevel.TRANSCRIPTOMIC, transcriptomicString);
+    private GenicLevelContainer getGenicLevel(Gene candidateGene, int candidateCount) {
+        TranscriptMatchEvent matchEvent = new TranscriptMatchEvent();
+        matchEvent.begin();
+        List<Transcript> matchingTranscripts = getMatchingTranscripts(candidateGene);
+        matchEvent.end();
+
+        if (matchEvent.shouldCommit()) {
+            matchEvent.geneId = candidateGene.getGeneId();
+            matchEvent.candidateCount = candidateCount;
+            matchEvent.transcriptCount = candidateGene.getTranscripts().size();
+            matchEvent.commit();
+        }
+
+        if (!matchingTranscripts.isEmpty()) return new GenicLevelContainer(GenicLevel.TRANSCRIPTOMIC, candidateGene, matchingTranscripts);
 
-        String mergedTranscriptomicString = isMergedTranscriptomic(candidateGene);
-        if (mergedTranscriptomicString != null) return new GenicLevelContainer(GenicLevel.MERGED_TRANSCRIPTOMIC, mergedTranscriptomicString);
+        if (isMergedTranscriptomic(candidateGene)) return new GenicLevelContainer(GenicLevel.MERGED_TRANSCRIPTOMIC, candidateGene, List.of());
 
-        else return new GenicLevelContainer(GenicLevel.INTRONIC, candidateGene.getGeneId() + "," + candidateGene.getGeneBiotype() + ":INTRON");
+        else return new GenicLevelContainer(GenicLevel.INTRONIC, candidateGene, List.of());
     }
 
-    private String isTranscriptomic(Gene candidateGene) {
+    private List<Transcript> getMatchingTranscripts(Gene candidateGene) {
         List<Transcript> matchingTranscripts = new ArrayList<>();
-
-        var exonVectorFirstRead = new HashSet<>(regionVectorFirst);
-        var exonVectorLastRead = new HashSet<>(regionVectorLast);
+        IntervalBuffer transcriptBlocks = SCRATCH.get().transcriptBlocks;
 
         for (Transcript transcript : candidateGene.getTranscripts()) {
-            var exonVectorFirstInterval = new HashSet<>(transcript.getExonRegionsForInterval(firstRecordRegion));
-            var exonVectorLastInterval = new HashSet<>(transcript.getExonRegionsForInterval(lastRecordRegion));
-
-            if (exonVectorFirstInterval.equals(exonVectorFirstRead) && exonVectorLastInterval.equals(exonVectorLastRead)) {
-                matchingTranscripts.add(transcript);
-            }
-        }
+            transcriptBlocks.clear();
+            transcript.addExonBlocksForInterval(firstRecord.getAlignmentStart(), firstRecord.getAlignmentEnd(), transcriptBlocks);
+            transcriptBlocks.sortAndDeduplicate();
+            if (!transcriptBlocks.contentEquals(regionVectorFirst)) continue;
 
-        if (matchingTranscripts.isEmpty()) return null;
+            transcriptBlocks.clear();
+            transcript.addExonBlocksForInterval(lastRecord.getAlignmentStart(), lastRecord.getAlignmentEnd(), transcriptBlocks);
+            transcriptBlocks.sortAndDeduplicate();
+            if (!transcriptBlocks.contentEquals(regionVectorLast)) continue;
 
-        StringBuilder transcriptomicString = new StringBuilder(candidateGene.getGeneId() + "," + candidateGene.getGeneBiotype() + ":");
-        for (Transcript transcript : matchingTranscripts)
-            transcriptomicString.append(transcript.getTranscriptId()).append(",");
+            matchingTranscripts.add(transcript);
+        }
 
-        return transcriptomicString.substring(0, transcriptomicString.length() - 1);
+        return matchingTranscripts;
     }
 
-    private String isMergedTranscriptomic(Gene candidateGene) {
-        for (Region block : regionVectorFirst) {
-            var mergedTranscriptBlock = candidateGene.getMergedTranscriptomeForInterval(block);
-            if (mergedTranscriptBlock.size() != 1) return null;
-            if (!mergedTranscriptBlock.getFirst().equals(block)) return null;
+    private boolean isMergedTranscriptomic(Gene candidateGene) {
+        for (int i = 0; i < regionVectorFirst.length; i += 2) {
+            if (!candidateGene.isCoveredByMergedTranscriptome(regionVectorFirst[i], regionVectorFirst[i + 1])) return false;
         }
 
-        for (Region block : regionVectorLast) {
-            var mergedTranscriptBlock = candidateGene.getMergedTranscriptomeForInterval(block);
-            if (mergedTranscriptBlock.size() != 1) return null;
-            if (!mergedTranscriptBlock.getFirst().equals(block)) return null;
+        for (int i = 0; i < regionVectorLast.length; i += 2) {
+            if (!candidateGene.isCoveredByMergedTranscriptome(regionVectorLast[i], regionVectorLast[i + 1])) return false;
         }
 
-        return candidateGene.getGeneId() + "," + candidateGene.getGeneBiotype() + ":MERGED";
+        return true;
     }
 
-    private List<Gene> getCandidateGenes(TreeGtf treeGtf, Boolean strand) {
-        String chr = firstRecord.getReferenceName();
-
-        var readBounds = getMinStartMaxEnd();
-        HashSet<Gene> candidates = new HashSet<>(treeGtf.getContainingGenes(chr, readBounds.start(), readBounds.end(), strand));
+    private List<Gene> getCandidateGenes(ContigAnnotation annotation, Boolean strand) {
+        CandidateGenesEvent candidatesEvent = new CandidateGenesEvent();
+        candidatesEvent.begin();
+        HashSet<Gene> candidates = new HashSet<>();
+        annotation.forEachContainingGene(referenceIndex, getPairStart(), getPairEnd(), strand, candidates::add);
+        candidatesEvent.end();
+
+        if (candidatesEvent.shouldCommit()) {
+            candidatesEvent.chromosome = chromosome;
+            candidatesEvent.candidateCount = candidates.size();
+            candidatesEvent.commit();
+        }
 
         return new ArrayList<>(candidates);
     }
 
     private Integer getNSplit() {
-        Region overlap = firstRecordRegion.getIntersectingRegion(lastRecordRegion);
+        Scratch scratch = SCRATCH.get();
+        IntervalBuffer firstIntrons = getIntrons(firstRecord, scratch.blocks, scratch.intronsFirst);
+        IntervalBuffer lastIntrons = getIntrons(lastRecord, scratch.blocks, scratch.intronsLast);
 
-        Set<Region> firstIntrons = new HashSet<>(intronsFirst);
-        Set<Region> lastIntrons  = new HashSet<>(intronsLast);
+        int overlapStart = Math.max(firstRecord.getAlignmentStart(), lastRecord.getAlignmentStart());
+        int overlapEnd = Math.min(firstRecord.getAlignmentEnd(), lastRecord.getAlignmentEnd());
 
-        if (overlap != null) {
-            var firstIntronsOverlap = firstIntrons.stream()
-                    .filter(i -> i.intersects(overlap))
-                    .collect(Collectors.toSet());
+        if (overlapStart <= overlapEnd && !firstIntrons.intersectingEquals(lastIntrons, overlapStart, overlapEnd))
+            return null;
 
-            var lastIntronsOverlap = lastIntrons.stream()
-                    .filter(i -> i.intersects(overlap))
-                    .collect(Collectors.toSet());
+        return firstIntrons.unionSize(lastIntrons);
+    }
 
-            if (!firstIntronsOverlap.equals(lastIntronsOverlap))
-                return null;
-        }
+    /*
+    Union of the introns of both reads, only valid right after getNSplit
+     */
+    private int[] getSplicedIntrons() {
+        Scratch scratch = SCRATCH.get();
+        scratch.intronsFirst.unionInto(scratch.intronsLast, scratch.introns);
+        return scratch.introns.toArray();
+    }
 
-        firstIntrons.addAll(lastIntrons);
-        return firstIntrons.size();
+    /*
+    Distinct N spans of both reads. Unlike the introns these leave out the gaps of D operators
+     */
+    private int[] getSpliceJunctions() {
+        IntervalBuffer junctions = SCRATCH.get().junctions;
+        junctions.clear();
+        firstRecord.copySkipsTo(junctions);
+        lastRecord.copySkipsTo(junctions);
+        junctions.sortAndDeduplicate();
+        return junctions.toArray();
     }
 
     private int getMismatches() {
-        Integer nm1 = firstRecord.getIntegerAttribute("NM");
-        Integer nm2 = lastRecord.getIntegerAttribute("NM");
-
-        if (nm1 == null) nm1 = 0;
-        if (nm2 == null) nm2 = 0;
-
-        return nm1 + nm2;
+        return firstRecord.getMismatches() + lastRecord.getMismatches();
     }
 
     private int getTotalClipped() {
-        return getClippingCount(firstRecord) + getClippingCount(lastRecord);
+        return firstRecord.getClipping() + lastRecord.getClipping();
     }
 
-    private static int getClippingCount(SAMRecord record) {
-        List<CigarElement> cigar = record.getCigar().getCigarElements();
-        int clipped = 0;
-
-        for (CigarElement element : cigar) {
-            CigarOperator operator = element.getOperator();
-
-            if (operator == CigarOperator.S || operator == CigarOperator.H) {
-                clipped += element.getLength();
-            }
-        }
-
-        return clipped;
+    private int getPairStart() {
+        return pairRegionVector[0];
     }
 
-    private Region getMinStartMaxEnd() {
-        int minPos = Integer.MAX_VALUE;
-        int maxPos = Integer.MIN_VALUE;
-
-        for (Region region : pairRegionVector) {
-            minPos = Math.min(minPos, region.start());
-            maxPos = Math.max(maxPos, region.end());
-        }
-
-        return new Region(minPos, maxPos);
+    private int getPairEnd() {
+        return pairRegionVector[pairRegionVector.length - 1];
     }
 
-    private static HashSet<Region> getIntrons(SAMRecord record) {
-        var introns = new HashSet<Region>();
-        List<AlignmentBlock> blocks = record.getAlignmentBlocks();
-
-        if (blocks.size() < 2) return introns;
-
-        for (int i = 0; i < blocks.size() - 1; i++) {
-            AlignmentBlock a = blocks.get(i);
-            AlignmentBlock b = blocks.get(i + 1);
-
-            int intronStart = a.getReferenceStart() + a.getLength();
-            int intronEnd = b.getReferenceStart() - 1;
-
-            if (intronEnd >= intronStart) {
-                introns.add(new Region(intronStart, intronEnd));
-            }
-        }
+    private static IntervalBuffer getIntrons(MateProjection record, IntervalBuffer blocks, IntervalBuffer introns) {
+        blocks.clear();
+        record.copyBlocksTo(blocks);
 
+        introns.clear();
+        introns.addGaps(blocks);
+        introns.sortAndDeduplicate();
         return introns;
     }
 
-    private static List<Region> getRegionVector(SAMRecord record) {
-        List<Region> regions = new ArrayList<>();
-
-        for (AlignmentBlock block : record.getAlignmentBlocks()) {
-            regions.add(new Region(block.getReferenceStart(), block.getReferenceStart() + block.getLength() - 1));
-        }
-
-        return BamFeatureUtils.mergeVector(regions);
-    }
-
     @Override
     public String toString() {
         return firstRecord.getReadName() + ", " + lastRecord.getReadName();
@@ -0,0 +1,43 @@
+package com.github.valentinrexer;
+
+public class ReadSampler {
+    /*
+    Keeps a read if a seeded hash of its name falls below the fraction. Both mates share the name,
+    so a pair is always kept or dropped as a whole, and the same seed always picks the same pairs.
+     */
+
+    private final double fraction;
+    private final long seed;
+
+    public ReadSampler(double fraction, long seed) {
+        if (!(fraction > 0 && fraction <= 1))
+            throw new IllegalArgumentException("Sample fraction has to be in (0, 1]: " + fraction);
+
+        this.fraction = fraction;
+        this.seed = seed;
+    }
+
+    public boolean keep(String readName) {
+        if (fraction == 1) return true;
+
+        // 53 high bits of the hash as a uniform double in [0, 1)
+        return (hash(readName) >>> 11) * 0x1.0p-53 < fraction;
+    }
+
+    private long hash(String readName) {
+        long h = seed ^ 0x9E3779B97F4A7C15L;
+
+        for (int i = 0; i < readName.length(); i++) {
+            h ^= readName.charAt(i);
+            h *= 0x100000001B3L;
+        }
+
+        // murmur3 finalizer, FNV alone leaves the high bits poorly mixed for short names
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
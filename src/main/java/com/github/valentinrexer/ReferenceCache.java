@@ -0,0 +1,111 @@
+package com.github.valentinrexer;
+
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.cram.ref.CRAMReferenceSource;
+import htsjdk.samtools.reference.FastaSequenceIndex;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.util.StringUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+public class ReferenceCache implements CRAMReferenceSource {
+    /*
+    Reference bases for CRAM decoding from an indexed FASTA (<fasta>.fai), one upper case byte[] per contig.
+    Contigs stay cached until the cache grows past its byte budget, then the least recently used ones are dropped.
+    One instance is shared by all readers of a run, so every contig is read from disk once per run
+    as long as it fits, no matter how many shards decode it.
+     */
+
+    private static final Logger logger = Logger.getLogger(ReferenceCache.class.getName());
+
+    private final Path fastaPath;
+    private final FastaSequenceIndex index;
+    private final ReferenceSequenceFile fasta;
+    private final long maxBytes;
+    private final ContigAliases aliases = new ContigAliases(true);
+
+    // access ordered, so iteration starts at the least recently used contig
+    private final LinkedHashMap<String, byte[]> contigs = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    public ReferenceCache(Path fastaPath, long maxBytes) throws IOException {
+        Path indexPath = ReferenceSequenceFileFactory.getFastaIndexFileName(fastaPath);
+        if (!Files.exists(indexPath))
+            throw new IllegalArgumentException("Reference " + fastaPath + " has no index, create " + indexPath + " with samtools faidx");
+
+        this.fastaPath = fastaPath;
+        this.index = new FastaSequenceIndex(indexPath);
+        this.fasta = ReferenceSequenceFileFactory.getReferenceSequenceFile(fastaPath, true, true);
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public byte[] getReferenceBases(SAMSequenceRecord record, boolean tryNameVariants) {
+        List<String> candidates = tryNameVariants
+                ? aliases.getCandidates(record.getSequenceName(), record.getAlternativeSequenceNames())
+                : List.of(record.getSequenceName());
+
+        for (String name : candidates) {
+            if (index.hasIndexEntry(name)) return getContig(name);
+        }
+
+        return null;
+    }
+
+    @Override
+    public byte[] getReferenceBasesByRegion(SAMSequenceRecord record, int zeroBasedStart, int requestedRegionLength) {
+        byte[] bases = getReferenceBases(record, true);
+        if (bases == null || zeroBasedStart >= bases.length) return null;
+
+        return Arrays.copyOfRange(bases, zeroBasedStart, Math.min(bases.length, zeroBasedStart + requestedRegionLength));
+    }
+
+    private byte[] getContig(String name) {
+        synchronized (contigs) {
+            byte[] bases = contigs.get(name);
+            if (bases != null) return bases;
+        }
+
+        // the FASTA reader is not thread safe, concurrent misses of the same contig load it once
+        synchronized (fasta) {
+            synchronized (contigs) {
+                byte[] bases = contigs.get(name);
+                if (bases != null) return bases;
+            }
+
+            byte[] bases = fasta.getSequence(name).getBases();
+            StringUtil.toUpperCase(bases);
+            logger.fine("Loaded " + bases.length + " reference bases of " + name + " from " + fastaPath);
+
+            synchronized (contigs) {
+                contigs.put(name, bases);
+                cachedBytes += bases.length;
+                evict(name);
+            }
+
+            return bases;
+        }
+    }
+
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, byte[]>> eldest = contigs.entrySet().iterator();
+
+        while (cachedBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, byte[]> entry = eldest.next();
+            if (entry.getKey().equals(keep)) continue;
+
+            cachedBytes -= entry.getValue().length;
+            eldest.remove();
+            logger.fine("Evicted reference bases of " + entry.getKey());
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package com.github.valentinrexer;
 
-import augmentedTree.Interval;
+import com.github.valentinrexer.utils.Interval;
 
 import java.util.Objects;
 
@@ -0,0 +1,121 @@
+package com.github.valentinrexer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+public record ScatterManifest(int index, int count, String plan, String mode, Map<String, String> run,
+                              long lines, long checksum) {
+    /*
+    Completion record of one slot of a scattered run, written next to its output as <output>.scatter
+    once the output is complete:
+        shard TAB index TAB count
+        plan TAB fingerprint of the shard plan
+        mode TAB tsv / counts
+        run TAB key TAB value, one line per input file and output affecting option of the run
+        lines TAB lines of the output
+        crc32 TAB checksum of the output
+    A slot without this file did not finish.
+     */
+
+    public ScatterManifest {
+        run = Collections.unmodifiableMap(new LinkedHashMap<>(run));
+    }
+
+    public static final String TSV = "tsv";
+    public static final String COUNTS = "counts";
+
+    public static Path pathOf(Path outPath) {
+        return outPath.resolveSibling(outPath.getFileName() + ".scatter");
+    }
+
+    public static ScatterManifest describe(Path outPath, int index, int count, String plan, String mode,
+                                           Map<String, String> run) throws IOException {
+        CRC32 crc = new CRC32();
+        long lines = 0;
+        byte[] buffer = new byte[1 << 16];
+
+        try (InputStream in = Files.newInputStream(outPath)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+                for (int i = 0; i < n; i++) if (buffer[i] == '\n') lines++;
+            }
+        }
+
+        return new ScatterManifest(index, count, plan, mode, run, lines, crc.getValue());
+    }
+
+    public void write(Path outPath) throws IOException {
+        Path manifestPath = pathOf(outPath);
+        Path tmpPath = manifestPath.resolveSibling(manifestPath.getFileName() + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(tmpPath)) {
+            writer.write("shard\t" + index + "\t" + count);
+            writer.newLine();
+            writer.write("plan\t" + plan);
+            writer.newLine();
+            writer.write("mode\t" + mode);
+            writer.newLine();
+            for (Map.Entry<String, String> entry : run.entrySet()) {
+                writer.write("run\t" + entry.getKey() + "\t" + entry.getValue());
+                writer.newLine();
+            }
+            writer.write("lines\t" + lines);
+            writer.newLine();
+            writer.write("crc32\t" + Long.toHexString(checksum));
+            writer.newLine();
+        }
+
+        Files.move(tmpPath, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static ScatterManifest read(Path outPath) throws IOException {
+        Path manifestPath = pathOf(outPath);
+        Map<String, String[]> fields = new HashMap<>();
+        Map<String, String> run = new LinkedHashMap<>();
+
+        try (BufferedReader br = Files.newBufferedReader(manifestPath)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                String[] parts = line.split("\t", -1);
+                if (parts.length == 3 && parts[0].equals("run")) run.put(parts[1], parts[2]);
+                else fields.put(parts[0], parts);
+            }
+        } catch (NoSuchFileException e) {
+            throw new IllegalArgumentException(outPath + " has no " + manifestPath.getFileName() + ", its shard did not finish");
+        }
+
+        ScatterManifest manifest;
+        try {
+            String[] shard = fields.get("shard");
+            manifest = new ScatterManifest(
+                    Integer.parseInt(shard[1]),
+                    Integer.parseInt(shard[2]),
+                    fields.get("plan")[1],
+                    fields.get("mode")[1],
+                    run,
+                    Long.parseLong(fields.get("lines")[1]),
+                    Long.parseUnsignedLong(fields.get("crc32")[1], 16)
+            );
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid manifest " + manifestPath + ": " + e.getMessage());
+        }
+
+        if (manifest.index() < 0 || manifest.index() >= manifest.count())
+            throw new IllegalArgumentException("Invalid manifest " + manifestPath + ": shard " + manifest.index() + "/" + manifest.count());
+
+        return manifest;
+    }
+}
@@ -0,0 +1,167 @@
+package com.github.valentinrexer;
+
+import htsjdk.samtools.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+public class ShardPlanner {
+    /*
+    Cuts the contigs of an indexed, coordinate sorted BAM file into spans of roughly equal work.
+    The work of a span is estimated from the BAI bins: the compressed bytes of every bin's chunks are spread
+    evenly over the 16kb windows of the bin (spliced reads often sit in the larger bins), and contigs are cut
+    at window boundaries once a shard has its share. Without a browseable index (CSI) every contig with
+    aligned records becomes one shard, weighted by its record count.
+     */
+
+    public record Shard(int referenceIndex, String contig, int start, int end, long weight) {
+        @Override
+        public String toString() {
+            return contig + ":" + start + "-" + end;
+        }
+    }
+
+    // size of the smallest BAI bins, the finest resolution of the index
+    static final int WINDOW = 1 << 14;
+    private static final int LEAF_LEVEL = 5;
+
+    // BGZF blocks compress to roughly a third, used when a chunk starts and ends in the same block
+    private static final int COMPRESSION_RATIO = 3;
+
+    public static List<Shard> plan(SamReader sam, int shardCount) {
+        if (!sam.hasIndex())
+            throw new IllegalArgumentException("Sharding needs an indexed input file");
+
+        List<SAMSequenceRecord> sequences = sam.getFileHeader().getSequenceDictionary().getSequences();
+        BAMIndex index = sam.indexing().getIndex();
+        BrowseableBAMIndex browseable = sam.indexing().hasBrowseableIndex() ? sam.indexing().getBrowseableIndex() : null;
+
+        long[][] windows = new long[sequences.size()][];
+        long total = 0;
+
+        for (SAMSequenceRecord sequence : sequences) {
+            int referenceIndex = sequence.getSequenceIndex();
+
+            // a CRAM index converted from .crai has bins but no record counts
+            long[] weights = browseable == null
+                    ? new long[] {index.getMetaData(referenceIndex).getAlignedRecordCount()}
+                    : getWindowWeights(browseable, referenceIndex, sequence.getSequenceLength());
+
+            long contigWeight = 0;
+            for (long weight : weights) contigWeight += weight;
+            if (contigWeight == 0) continue;
+
+            windows[referenceIndex] = weights;
+            total += contigWeight;
+        }
+
+        long target = Math.max(1, total / Math.max(1, shardCount));
+        List<Shard> shards = new ArrayList<>();
+
+        for (SAMSequenceRecord sequence : sequences) {
+            long[] weights = windows[sequence.getSequenceIndex()];
+            if (weights == null) continue;
+
+            int length = sequence.getSequenceLength();
+            int windowSize = weights.length == 1 ? Math.max(length, 1) : WINDOW;
+            int shardStart = 1;
+            long shardWeight = 0;
+
+            for (int w = 0; w < weights.length; w++) {
+                shardWeight += weights[w];
+
+                if (shardWeight >= target && w < weights.length - 1) {
+                    int shardEnd = (w + 1) * windowSize;
+                    shards.add(new Shard(sequence.getSequenceIndex(), sequence.getSequenceName(), shardStart, shardEnd, shardWeight));
+                    shardStart = shardEnd + 1;
+                    shardWeight = 0;
+                }
+            }
+
+            shards.add(new Shard(sequence.getSequenceIndex(), sequence.getSequenceName(), shardStart, length, shardWeight));
+        }
+
+        return shards;
+    }
+
+    /*
+    The contiguous part of a plan that belongs to scatter slot index of count. Spans are handed out by where
+    their weight midpoint falls in the cumulative weight, so every slot gets about 1/count of the work
+    and the slots in order cover the plan in order.
+     */
+    public static List<Shard> assign(List<Shard> plan, int index, int count) {
+        long total = 0;
+        for (Shard shard : plan) total += shard.weight();
+
+        // an index without weights splits by span count instead
+        boolean unweighted = total == 0;
+        if (unweighted) total = plan.size();
+
+        List<Shard> assigned = new ArrayList<>();
+        long before = 0;
+
+        for (Shard shard : plan) {
+            long weight = unweighted ? 1 : shard.weight();
+            int slot = (int) Math.min(count - 1, (2 * before + weight) * count / (2 * total));
+
+            if (slot == index) assigned.add(shard);
+            before += weight;
+        }
+
+        return assigned;
+    }
+
+    /*
+    Fingerprint of a plan, equal plans on different machines give equal fingerprints
+     */
+    public static String fingerprint(List<Shard> plan) {
+        CRC32 crc = new CRC32();
+        for (Shard shard : plan)
+            crc.update((shard.referenceIndex() + "\t" + shard + "\t" + shard.weight() + "\n").getBytes(StandardCharsets.UTF_8));
+
+        return Long.toHexString(crc.getValue());
+    }
+
+    private static long[] getWindowWeights(BrowseableBAMIndex index, int referenceIndex, int length) {
+        long[] weights = new long[Math.max(1, (length + WINDOW - 1) / WINDOW)];
+
+        for (Bin bin : index.getBinsOverlapping(referenceIndex, 1, length)) {
+            if (bin.getBinNumber() >= GenomicIndexUtil.MAX_BINS) continue;
+
+            BAMFileSpan span = index.getSpanOverlapping(bin);
+            if (span == null || span.isEmpty()) continue;
+
+            long binWeight = 0;
+            for (Chunk chunk : span.getChunks()) binWeight += getChunkWeight(chunk);
+
+            int first = (index.getFirstLocusInBin(bin) - 1) / WINDOW;
+            int last = Math.min(weights.length - 1, (index.getLastLocusInBin(bin) - 1) / WINDOW);
+            if (first > last) continue;
+
+            if (index.getLevelForBin(bin) == LEAF_LEVEL) {
+                weights[first] += binWeight;
+                continue;
+            }
+
+            long share = binWeight / (last - first + 1);
+            long rest = binWeight % (last - first + 1);
+            for (int w = first; w <= last; w++) weights[w] += share + (w - first < rest ? 1 : 0);
+        }
+
+        return weights;
+    }
+
+    /*
+    Approximate compressed bytes between the two virtual offsets of a chunk
+     */
+    private static long getChunkWeight(Chunk chunk) {
+        long bytes = (chunk.getChunkEnd() >>> 16) - (chunk.getChunkStart() >>> 16);
+        if (bytes > 0) return bytes;
+
+        // within one BGZF block the low bits are uncompressed offsets. In a CRAM index they are slice numbers
+        // of one container instead, small enough to end up at the minimum weight
+        return Math.max(1, ((chunk.getChunkEnd() & 0xffff) - (chunk.getChunkStart() & 0xffff)) / COMPRESSION_RATIO);
+    }
+}
@@ -0,0 +1,237 @@
+package com.github.valentinrexer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+public class ShardedOutput implements FeatureOutput {
+    /*
+    Writes every chromosome into its own shard file next to the output file (<output>.shards/).
+    Finished shards are recorded in manifest.tsv as
+        chromosome TAB shard file TAB lines TAB crc32
+    so an interrupted run can be resumed. The shards are concatenated into the output file
+    in input order once the whole input was processed.
+    The manifest starts with the description of the run that wrote it, one "#run TAB key TAB value" line
+    per input file and output affecting option. A run only resumes shards written with the same description.
+     */
+
+    private static final Logger logger = Logger.getLogger(ShardedOutput.class.getName());
+    private static final String MANIFEST = "manifest.tsv";
+    private static final String RUN = "#run";
+
+    private record Shard(String chromosome, String fileName, long lines, long checksum) {
+        String toManifestLine() {
+            return chromosome + "\t" + fileName + "\t" + lines + "\t" + Long.toHexString(checksum);
+        }
+
+        static Shard fromManifestLine(String line) {
+            String[] parts = line.split("\t");
+            if (parts.length != 4) throw new IllegalArgumentException("Invalid manifest line: " + line);
+            return new Shard(parts[0], parts[1], Long.parseLong(parts[2]), Long.parseUnsignedLong(parts[3], 16));
+        }
+    }
+
+    private final Path outPath;
+    private final Path shardDir;
+    private final Path manifestPath;
+    private final Map<String, String> run;
+    private final Map<String, Shard> completed = new LinkedHashMap<>();
+    private final Set<String> seen = new LinkedHashSet<>();
+
+    private String chromosome;
+    private Path tmpPath;
+    private CRC32 checksum;
+    private BufferedWriter writer;
+    private long lines;
+
+    public ShardedOutput(Path outPath, boolean resume, Map<String, String> run) throws IOException {
+        this.outPath = outPath;
+        this.shardDir = outPath.resolveSibling(outPath.getFileName() + ".shards");
+        this.manifestPath = shardDir.resolve(MANIFEST);
+        this.run = new LinkedHashMap<>(run);
+
+        Files.createDirectories(shardDir);
+
+        if (resume && Files.exists(manifestPath)) readManifest();
+        // a fresh run starts with an empty manifest that only names the run
+        else writeManifest();
+    }
+
+    /*
+    Path, size and modification time, a changed input file does not resume
+     */
+    public static String describeFile(Path path) throws IOException {
+        return path.toAbsolutePath().normalize() + " " + Files.size(path) + " " + Files.getLastModifiedTime(path).toMillis();
+    }
+
+    private void readManifest() throws IOException {
+        Map<String, String> manifestRun = new LinkedHashMap<>();
+        List<Shard> shards = new ArrayList<>();
+
+        try (BufferedReader br = Files.newBufferedReader(manifestPath)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty()) continue;
+
+                String[] parts = line.split("\t", -1);
+                if (parts.length == 3 && parts[0].equals(RUN)) manifestRun.put(parts[1], parts[2]);
+                else shards.add(Shard.fromManifestLine(line));
+            }
+        }
+
+        if (!manifestRun.equals(run)) {
+            throw new IllegalArgumentException("The shards in " + shardDir + " were written by a run with different " +
+                    (manifestRun.isEmpty() ? "or unknown inputs and options" : "inputs or options " + changedKeys(run, manifestRun)) +
+                    ", rerun without -resume");
+        }
+
+        for (Shard shard : shards) {
+            Path shardPath = shardDir.resolve(shard.fileName());
+
+            if (Files.exists(shardPath) && checksumOf(shardPath) == shard.checksum()) {
+                completed.put(shard.chromosome(), shard);
+            } else {
+                logger.warning("Shard of " + shard.chromosome() + " is missing or corrupt and will be recomputed");
+            }
+        }
+
+        // rewrite the manifest so it only lists shards that passed the check
+        writeManifest();
+        logger.info("Resuming with " + completed.size() + " completed chromosomes");
+    }
+
+    /*
+    Keys of two run descriptions with different or missing values
+     */
+    static List<String> changedKeys(Map<String, String> run, Map<String, String> other) {
+        List<String> changed = new ArrayList<>();
+        for (String key : run.keySet()) if (!run.get(key).equals(other.get(key))) changed.add(key);
+        for (String key : other.keySet()) if (!run.containsKey(key)) changed.add(key);
+        return changed;
+    }
+
+    private void writeManifest() throws IOException {
+        Path tmpManifest = shardDir.resolve(MANIFEST + ".tmp");
+        try (BufferedWriter bw = Files.newBufferedWriter(tmpManifest)) {
+            for (Map.Entry<String, String> entry : run.entrySet()) {
+                bw.write(RUN + "\t" + entry.getKey() + "\t" + entry.getValue());
+                bw.newLine();
+            }
+
+            for (Shard shard : completed.values()) {
+                bw.write(shard.toManifestLine());
+                bw.newLine();
+            }
+        }
+        Files.move(tmpManifest, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void appendToManifest(Shard shard) throws IOException {
+        try (FileChannel channel = FileChannel.open(manifestPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(StandardCharsets.UTF_8.encode(shard.toManifestLine() + "\n"));
+            channel.force(true);
+        }
+    }
+
+    private static long checksumOf(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+
+        try (InputStream in = Files.newInputStream(path)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) crc.update(buffer, 0, n);
+        }
+
+        return crc.getValue();
+    }
+
+    private static String shardFileName(String chromosome) {
+        // contig names may contain characters that are not allowed in file names,
+        // the hash keeps sanitized names from colliding
+        return chromosome.replaceAll("[^A-Za-z0-9._-]", "_") + "." + String.format("%08x", chromosome.hashCode()) + ".tsv";
+    }
+
+    @Override
+    public boolean startChromosome(String chromosome) throws IOException {
+        finishChromosome();
+
+        if (!seen.add(chromosome))
+            throw new IllegalStateException("Input is not grouped by chromosome, " + chromosome + " appeared twice");
+
+        if (completed.containsKey(chromosome)) {
+            logger.info("Skipping completed chromosome " + chromosome);
+            return false;
+        }
+
+        this.chromosome = chromosome;
+        this.tmpPath = shardDir.resolve(shardFileName(chromosome) + ".tmp");
+        this.checksum = new CRC32();
+        this.lines = 0;
+
+        OutputStream out = new CheckedOutputStream(Files.newOutputStream(tmpPath), checksum);
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        return true;
+    }
+
+    @Override
+    public void write(PairFeatures features) throws IOException {
+        writer.write(features.toTsvLine());
+        writer.newLine();
+        lines++;
+    }
+
+    private void finishChromosome() throws IOException {
+        if (chromosome == null) return;
+
+        writer.close();
+        writer = null;
+
+        try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+
+        Shard shard = new Shard(chromosome, shardFileName(chromosome), lines, checksum.getValue());
+        Files.move(tmpPath, shardDir.resolve(shard.fileName()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        appendToManifest(shard);
+        completed.put(chromosome, shard);
+
+        chromosome = null;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        finishChromosome();
+
+        // shards recomputed on resume are appended to the manifest, so the order of the input is used instead
+        try (OutputStream out = Files.newOutputStream(outPath)) {
+            for (String chr : seen) {
+                Files.copy(shardDir.resolve(completed.get(chr).fileName()), out);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // an unfinished shard stays a .tmp file and is recomputed on resume
+        if (writer != null) writer.close();
+    }
+}
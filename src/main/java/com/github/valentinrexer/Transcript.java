@@ -1,80 +1,72 @@
 package com.github.valentinrexer;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import augmentedTree.*;
-import com.github.valentinrexer.utils.BamFeatureUtils;
+import com.github.valentinrexer.utils.IntervalBuffer;
+
+public final class Transcript {
+    /*
+    Immutable once constructed, exons are sorted by start and all derived data is computed up front.
+    Built by TreeGtfBuilder.
+     */
 
-public class Transcript {
     private final String transcriptId;
     private final String geneId;
     private final char strand;
     private final List<Exon> exons;
-    private List<Region> exonVector;
-    private int start = Integer.MAX_VALUE;
-    private int end = Integer.MIN_VALUE;
+    private final List<Region> exonVector;
+    private final int start;
+    private final int end;
+    private final int ordinal;
 
-    public Transcript(String transcriptId, String geneId, char strand) {
+    public Transcript(String transcriptId, String geneId, char strand, List<Exon> exons, int ordinal) {
         this.transcriptId = transcriptId;
         this.geneId = geneId;
         this.strand = strand;
-        this.exons = new ArrayList<>();
-    }
+        this.ordinal = ordinal;
 
-    public void addExon(Exon exon) {
-        exons.add(exon);
-    }
+        List<Exon> sorted = new ArrayList<>(exons);
+        sorted.sort(Comparator.comparingInt(Exon::getStart));
+        this.exons = List.copyOf(sorted);
 
-    public void computeBoundaries() {
-        for (Exon exon : exons) {
+        int start = Integer.MAX_VALUE;
+        int end = Integer.MIN_VALUE;
+        List<Region> exonVector = new ArrayList<>();
+
+        for (Exon exon : this.exons) {
             start = Math.min(start, exon.getStart());
             end = Math.max(end, exon.getEnd());
+            exonVector.add(exon.toRegion());
         }
-    }
 
-    public void sortExons() {
-        exons.sort((e1, e2) -> Integer.compare(e1.getStart(), e2.getStart()));
+        this.start = start;
+        this.end = end;
+        this.exonVector = List.copyOf(exonVector);
     }
 
     public String getTranscriptId() { return transcriptId; }
     public String getGeneId() { return geneId; }
     public char getStrand() { return strand; }
+    public int getOrdinal() { return ordinal; }
 
     public List<Exon> getExons() {
-        return Collections.unmodifiableList(exons);
+        return exons;
     }
 
     public int getStart() { return start; }
 
     public int getEnd() { return end; }
 
-    private void computeExonVector() {
-        var exonVector = new ArrayList<Region>();
-        for (Exon exon : exons)
-            exonVector.add(exon.toRegion());
-
-        BamFeatureUtils.mergeVector(exonVector);
-        this.exonVector = exonVector;
-    }
-
     public List<Region> getExonVector() {
-        if (exonVector == null) computeExonVector();
         return exonVector;
     }
 
-    public List<Region> getExonRegionsForInterval(Region interval) {
-        List<Region> regions = new ArrayList<>();
-
+    public void addExonBlocksForInterval(int start, int end, IntervalBuffer out) {
         for (Exon exon : exons) {
-            if(exon.toRegion().intersects(interval))
-                regions.add(new Region(Math.max(interval.start(), exon.getStart()),
-                        Math.min(interval.end(), exon.getEnd()))
-                );
+            if (exon.getStart() <= end && exon.getEnd() >= start)
+                out.add(Math.max(start, exon.getStart()), Math.min(end, exon.getEnd()));
         }
-
-        return regions;
     }
 
     @Override
@@ -88,19 +80,12 @@ public class Transcript {
         if (!transcriptId.equals(that.transcriptId)) return false;
         if (!geneId.equals(that.geneId)) return false;
 
-        // Compare exons structurally: same count + same coordinates
+        // Compare exons structurally: same count + same coordinates, both are sorted by start
         if (this.exons.size() != that.exons.size()) return false;
 
-        // Ensure consistent ordering before structural comparison
-        List<Exon> ex1 = new ArrayList<>(this.exons);
-        List<Exon> ex2 = new ArrayList<>(that.exons);
-
-        ex1.sort(Comparator.comparingInt(Exon::getStart));
-        ex2.sort(Comparator.comparingInt(Exon::getStart));
-
-        for (int i = 0; i < ex1.size(); i++) {
-            Exon a = ex1.get(i);
-            Exon b = ex2.get(i);
+        for (int i = 0; i < exons.size(); i++) {
+            Exon a = exons.get(i);
+            Exon b = that.exons.get(i);
 
             if (a.getStart() != b.getStart() || a.getEnd() != b.getEnd())
                 return false;
@@ -116,10 +101,7 @@ public class Transcript {
         result = 31 * result + Character.hashCode(strand);
 
         // Include exon structure in hash
-        List<Exon> sorted = new ArrayList<>(exons);
-        sorted.sort(Comparator.comparingInt(Exon::getStart));
-
-        for (Exon e : sorted) {
+        for (Exon e : exons) {
             result = 31 * result + e.getStart();
             result = 31 * result + e.getEnd();
         }
@@ -135,4 +117,3 @@ public class Transcript {
                 ", exons=" + exons.size() + "}";
     }
 }
-
@@ -1,86 +1,121 @@
 package com.github.valentinrexer;
 
-import augmentedTree.IntervalTree;
+import com.github.valentinrexer.utils.IntervalIndex;
+import com.github.valentinrexer.utils.LongIntHashMap;
+import htsjdk.samtools.SAMSequenceDictionary;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.function.Consumer;
+
+public final class TreeGtf {
+    /*
+    Immutable annotation, built by TreeGtfBuilder. Everything is computed in the constructor and nothing
+    is modified afterwards, so one instance can be queried from any number of threads at the same time.
+     */
+
+    private final List<Gene> genes;
+    private final Map<Boolean, Map<String, IntervalIndex<Gene>>> geneTrees;
+    private final int transcriptCount;
+    private final Set<String> chromosomes;
+
+    // annotated introns per chromosome, [0] plus strand and [1] minus strand, keyed by packed start and end
+    private final Map<String, LongIntHashMap[]> introns;
+
+    TreeGtf(List<Gene> genes, int transcriptCount, Boolean frStrand) {
+        this.genes = List.copyOf(genes);
+        this.transcriptCount = transcriptCount;
+        this.geneTrees = buildIntervalTrees(this.genes, frStrand);
+        this.introns = collectIntrons(this.genes);
+
+        Set<String> chromosomes = new LinkedHashSet<>();
+        for (Gene g : this.genes) chromosomes.add(g.getChromosome());
+        this.chromosomes = Collections.unmodifiableSet(chromosomes);
+    }
 
-public class TreeGtf {
-    private final HashMap<String, Gene> genes = new HashMap<>();
-    private final Map<Boolean, Map<String, IntervalTree<Gene>>> geneTrees = new HashMap<>();
-
-    public void readInGffFile(Path filePath, Boolean frStrand) {
-        try (BufferedReader br = Files.newBufferedReader(filePath)) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.isEmpty() || line.charAt(0) == '#') continue;
-
-                GffLine gffLine = new GffLine(line);
-                String gene_id = gffLine.getAttribute("gene_id");
-                if (gene_id == null) continue;
-
-                String transcript_id = gffLine.getAttribute("transcript_id");
-                char strand = gffLine.getStrand();
-
-                if (!genes.containsKey(gene_id)) {
-                    genes.put(gene_id, new Gene(
-                            gene_id,
-                            gffLine.getAttribute("gene_name"),
-                            gffLine.getAttribute("gene_biotype"),
-                            strand,
-                            gffLine.getSeqId()
-                    ));
-                } else {
-                    if (genes.get(gene_id).getTranscript(transcript_id) == null) {
-                        genes.get(gene_id).addTranscript(new Transcript(
-                                transcript_id,
-                                gene_id,
-                                strand
-                        ));
-                    }
-
-                    if (gffLine.getType().equals("exon")) {
-                        genes.get(gene_id).getTranscript(transcript_id).addExon(
-                                new Exon(gffLine.getStart(), gffLine.getEnd(), transcript_id)
-                        );
-                    }
-                }
-            }
+    public static TreeGtf load(Path filePath, Boolean frStrand) {
+        return new TreeGtfBuilder().readInGffFile(filePath).build(frStrand);
+    }
 
-            genes.values().forEach(Gene::computeBoundaries);
-            buildIntervalTrees(frStrand);
-        } catch (RuntimeException | IOException e) {
-            System.err.println("Error occurred during initialization: " + e.getMessage());
-        }
+    /*
+    Resolves the annotation seqids against the contigs of an input file, see ContigAliases
+     */
+    public ContigAnnotation bind(SAMSequenceDictionary dictionary, ContigAliases aliases) {
+        return new ContigAnnotation(this, dictionary, aliases);
     }
 
-    public void buildIntervalTrees(Boolean frStrand) {
-        genes.values().forEach(Gene::computeBoundaries);
+    private static Map<Boolean, Map<String, IntervalIndex<Gene>>> buildIntervalTrees(List<Gene> genes, Boolean frStrand) {
+        Map<Boolean, Map<String, List<Gene>>> genesByChromosome = new HashMap<>();
 
-        for (Gene g : genes.values()) {
-            g.sortExonsForEachTranscript();
+        for (Gene g : genes) {
             String chr = g.getChromosome();
             Boolean key = null;
 
             if (frStrand != null)
                 key = g.getStrand() == '+';
 
-            Map<String, IntervalTree<Gene>> mapForStrand =
-                    geneTrees.computeIfAbsent(key, k -> new HashMap<>());
-            mapForStrand.computeIfAbsent(chr, c -> new IntervalTree<>()).add(g);
+            Map<String, List<Gene>> mapForStrand =
+                    genesByChromosome.computeIfAbsent(key, k -> new HashMap<>());
+            mapForStrand.computeIfAbsent(chr, c -> new ArrayList<>()).add(g);
         }
+
+        Map<Boolean, Map<String, IntervalIndex<Gene>>> geneTrees = new HashMap<>();
+        genesByChromosome.forEach((key, chromosomes) -> {
+            Map<String, IntervalIndex<Gene>> mapForStrand = new HashMap<>();
+            chromosomes.forEach((chr, chrGenes) -> mapForStrand.put(chr, new IntervalIndex<>(chrGenes)));
+            geneTrees.put(key, mapForStrand);
+        });
+
+        return geneTrees;
     }
 
+    private static Map<String, LongIntHashMap[]> collectIntrons(List<Gene> genes) {
+        Map<String, LongIntHashMap[]> introns = new HashMap<>();
+
+        for (Gene g : genes) {
+            LongIntHashMap[] strands = introns.computeIfAbsent(g.getChromosome(), c -> new LongIntHashMap[] {
+                    new LongIntHashMap(), new LongIntHashMap()
+            });
+            LongIntHashMap intronSet = strands[g.getStrand() == '-' ? 1 : 0];
+
+            for (Transcript t : g.getTranscripts()) {
+                List<Exon> exons = t.getExons();
+                for (int i = 0; i < exons.size() - 1; i++) {
+                    int intronStart = exons.get(i).getEnd() + 1;
+                    int intronEnd = exons.get(i + 1).getStart() - 1;
+
+                    if (intronEnd >= intronStart)
+                        intronSet.put(LongIntHashMap.pack(intronStart, intronEnd), 1);
+                }
+            }
+        }
+
+        return introns;
+    }
+
+    /*
+    strand is '+', '-' or '.' for either strand
+     */
+    public boolean isAnnotatedIntron(String chr, int start, int end, char strand) {
+        LongIntHashMap[] strands = introns.get(chr);
+        if (strands == null) return false;
+
+        long key = LongIntHashMap.pack(start, end);
+        if (strand != '-' && strands[0].containsKey(key)) return true;
+        return strand != '+' && strands[1].containsKey(key);
+    }
+
+    public int getGeneCount() { return genes.size(); }
+
+    public int getTranscriptCount() { return transcriptCount; }
+
     @FunctionalInterface
     public interface IntervalOp<T> {
         List<T> apply(int start, int end, List<T> out);
     }
 
-    private IntervalTree<Gene> getTree(String chr, Boolean frStrand) {
-        Map<String, IntervalTree<Gene>> strandMap = geneTrees.get(frStrand);
+    IntervalIndex<Gene> getTree(String chr, Boolean frStrand) {
+        Map<String, IntervalIndex<Gene>> strandMap = geneTrees.get(frStrand);
         if (strandMap == null) return null;
         return strandMap.get(chr);
     }
@@ -92,38 +127,53 @@ public class TreeGtf {
             Boolean frStrand,
             IntervalOp<Gene> op
     ) {
-        Map<String, IntervalTree<Gene>> strandMap = geneTrees.get(frStrand);
+        Map<String, IntervalIndex<Gene>> strandMap = geneTrees.get(frStrand);
         if (strandMap == null) return Collections.emptyList();
-        IntervalTree<Gene> tree = strandMap.get(chr);
+        IntervalIndex<Gene> tree = strandMap.get(chr);
         if (tree == null) return Collections.emptyList();
         return op.apply(start, end, new ArrayList<>());
     }
 
     public List<Gene> getContainingGenes(String chr, int start, int end, Boolean frStrand) {
-        IntervalTree<Gene> tree = getTree(chr, frStrand);
+        IntervalIndex<Gene> tree = getTree(chr, frStrand);
         if (tree == null) return Collections.emptyList();
         return getGenesByIntervalOperation(chr, start, end, frStrand, tree::getIntervalsSpanning);
     }
 
+    /*
+    Same as getContainingGenes without collecting the genes into a list first
+     */
+    public void forEachContainingGene(String chr, int start, int end, Boolean frStrand, Consumer<Gene> action) {
+        IntervalIndex<Gene> tree = getTree(chr, frStrand);
+        if (tree != null) tree.forEachSpanning(start, end, action);
+    }
+
     public List<Gene> getIncludedGene(String chr, int start, int end, Boolean frStrand) {
-        IntervalTree<Gene> tree = getTree(chr, frStrand);
+        IntervalIndex<Gene> tree = getTree(chr, frStrand);
         if (tree == null) return Collections.emptyList();
         return getGenesByIntervalOperation(chr, start, end, frStrand, tree::getIntervalsSpannedBy);
     }
 
     public List<Gene> getRightNeighbor(String chr, int start, int end, Boolean frStrand) {
-        IntervalTree<Gene> tree = getTree(chr, frStrand);
+        IntervalIndex<Gene> tree = getTree(chr, frStrand);
         if (tree == null) return Collections.emptyList();
         return getGenesByIntervalOperation(chr, start, end, frStrand, tree::getIntervalsRightNeighbor);
     }
 
     public List<Gene> getLeftNeighbor(String chr, int start, int end, Boolean frStrand) {
-        IntervalTree<Gene> tree = getTree(chr, frStrand);
+        IntervalIndex<Gene> tree = getTree(chr, frStrand);
         if (tree == null) return Collections.emptyList();
         return getGenesByIntervalOperation(chr, start, end, frStrand, tree::getIntervalsLeftNeighbor);
     }
 
     public List<Gene> getGenes() {
-        return genes.values().stream().toList();
+        return genes;
+    }
+
+    /*
+    Seqids that carry at least one gene
+     */
+    public Set<String> getChromosomes() {
+        return chromosomes;
     }
 }
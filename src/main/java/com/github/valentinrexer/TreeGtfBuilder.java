@@ -0,0 +1,115 @@
+package com.github.valentinrexer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class TreeGtfBuilder {
+    /*
+    Collects genes, transcripts and exons while reading a GTF file. build() turns them into an immutable
+    TreeGtf, the builder itself is not thread safe and can build several TreeGtfs (e.g. stranded and unstranded).
+     */
+
+    private static final class TranscriptDraft {
+        final String transcriptId;
+        final char strand;
+        final List<Exon> exons = new ArrayList<>();
+
+        TranscriptDraft(String transcriptId, char strand) {
+            this.transcriptId = transcriptId;
+            this.strand = strand;
+        }
+    }
+
+    private static final class GeneDraft {
+        final String geneId;
+        final String geneName;
+        final String geneBiotype;
+        final char strand;
+        final String chromosome;
+        final HashMap<String, TranscriptDraft> transcripts = new HashMap<>();
+
+        GeneDraft(String geneId, String geneName, String geneBiotype, char strand, String chromosome) {
+            this.geneId = geneId;
+            this.geneName = geneName;
+            this.geneBiotype = geneBiotype;
+            this.strand = strand;
+            this.chromosome = chromosome;
+        }
+    }
+
+    private final LinkedHashMap<String, GeneDraft> genes = new LinkedHashMap<>();
+
+    public TreeGtfBuilder readInGffFile(Path filePath) {
+        try (BufferedReader br = Files.newBufferedReader(filePath)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty() || line.charAt(0) == '#') continue;
+
+                GffLine gffLine = new GffLine(line);
+                String gene_id = gffLine.getAttribute("gene_id");
+                if (gene_id == null) continue;
+
+                String transcript_id = gffLine.getAttribute("transcript_id");
+                char strand = gffLine.getStrand();
+
+                if (!genes.containsKey(gene_id)) {
+                    genes.put(gene_id, new GeneDraft(
+                            gene_id,
+                            gffLine.getAttribute("gene_name"),
+                            gffLine.getAttribute("gene_biotype"),
+                            strand,
+                            gffLine.getSeqId()
+                    ));
+                } else {
+                    TranscriptDraft transcript = genes.get(gene_id).transcripts
+                            .computeIfAbsent(transcript_id, id -> new TranscriptDraft(id, strand));
+
+                    if (gffLine.getType().equals("exon")) {
+                        transcript.exons.add(new Exon(gffLine.getStart(), gffLine.getEnd(), transcript_id));
+                    }
+                }
+            }
+        } catch (RuntimeException | IOException e) {
+            System.err.println("Error occurred during initialization: " + e.getMessage());
+        }
+
+        return this;
+    }
+
+    /*
+    Genes and transcripts are numbered in file order, so per-gene data can live in plain arrays
+     */
+    public TreeGtf build(Boolean frStrand) {
+        List<Gene> built = new ArrayList<>(genes.size());
+        int transcriptOrdinal = 0;
+
+        for (GeneDraft draft : genes.values()) {
+            List<Transcript> transcripts = new ArrayList<>(draft.transcripts.size());
+
+            for (TranscriptDraft transcript : draft.transcripts.values()) {
+                transcripts.add(new Transcript(
+                        transcript.transcriptId,
+                        draft.geneId,
+                        transcript.strand,
+                        transcript.exons,
+                        transcriptOrdinal++
+                ));
+            }
+
+            built.add(new Gene(
+                    draft.geneId,
+                    draft.geneName,
+                    draft.geneBiotype,
+                    draft.strand,
+                    draft.chromosome,
+                    transcripts,
+                    built.size()
+            ));
+        }
+
+        return new TreeGtf(built, transcriptOrdinal, frStrand);
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.valentinrexer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class TsvOutput implements FeatureOutput {
+    /*
+    The first line is flushed right away, so a reader of a pipe sees output as soon as the first pair is done
+    (StartupBenchmark measures exactly that), everything after it is written in full buffers.
+     */
+
+    private final BufferedWriter writer;
+    private boolean firstLineFlushed;
+
+    public TsvOutput(Path outPath) throws IOException {
+        this.writer = Files.newBufferedWriter(outPath);
+    }
+
+    @Override
+    public boolean startChromosome(String chromosome) {
+        return true;
+    }
+
+    @Override
+    public boolean needsOrderedPairs() {
+        return false;
+    }
+
+    @Override
+    public void write(PairFeatures features) throws IOException {
+        writer.write(features.toTsvLine());
+        writer.newLine();
+
+        if (!firstLineFlushed) {
+            writer.flush();
+            firstLineFlushed = true;
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,246 @@
+package com.github.valentinrexer.plottinghelpers;
+
+import com.github.valentinrexer.Exon;
+import com.github.valentinrexer.Gene;
+import com.github.valentinrexer.Transcript;
+import com.github.valentinrexer.TreeGtf;
+import org.apache.commons.cli.*;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class AnnotationStats {
+    /*
+    Per gene statistics of an annotation, computed in parallel over the loaded genes:
+        merged exonic length, isoform count, distinct exons and distinct introns with their length distribution
+    and per contig gene counts and density. Genes are keyed by gene id, the tables keep the GTF order.
+     */
+
+    private static final String GENE_HEADER = "gene_id\tgene_name\tbiotype\tcontig\tstrand\tstart\tend\t" +
+            "isoforms\texons\tmerged_exonic_length\tintrons\tintron_min\tintron_median\tintron_mean\tintron_max";
+    private static final String CONTIG_HEADER = "contig\tgenes\tlength\tgenes_per_mb\tmerged_exonic_length";
+
+    public record GeneStats(Gene gene, int isoforms, int exons, long mergedExonicLength, int[] intronLengths) {
+        static GeneStats of(Gene gene) {
+            long mergedLength = 0;
+            for (int i = 0; i < gene.getMergedBlockCount(); i++)
+                mergedLength += gene.getMergedBlockEnd(i) - gene.getMergedBlockStart(i) + 1;
+
+            Set<Long> exons = new HashSet<>();
+            Set<Long> introns = new HashSet<>();
+
+            for (Transcript transcript : gene.getTranscripts()) {
+                List<Exon> transcriptExons = transcript.getExons();
+
+                for (int i = 0; i < transcriptExons.size(); i++) {
+                    Exon exon = transcriptExons.get(i);
+                    exons.add(pack(exon.getStart(), exon.getEnd()));
+
+                    if (i == transcriptExons.size() - 1) continue;
+
+                    int intronStart = exon.getEnd() + 1;
+                    int intronEnd = transcriptExons.get(i + 1).getStart() - 1;
+                    if (intronEnd >= intronStart) introns.add(pack(intronStart, intronEnd));
+                }
+            }
+
+            int[] intronLengths = new int[introns.size()];
+            int i = 0;
+            for (long intron : introns) intronLengths[i++] = (int) intron - (int) (intron >>> 32) + 1;
+            Arrays.sort(intronLengths);
+
+            return new GeneStats(gene, gene.getTranscripts().size(), exons.size(), mergedLength, intronLengths);
+        }
+
+        private static long pack(int start, int end) {
+            return ((long) start << 32) | (end & 0xffffffffL);
+        }
+
+        String toTsvLine() {
+            StringBuilder line = new StringBuilder();
+            line.append(gene.getGeneId()).append('\t')
+                    .append(Objects.requireNonNullElse(gene.getGeneName(), ".")).append('\t')
+                    .append(Objects.requireNonNullElse(gene.getGeneBiotype(), ".")).append('\t')
+                    .append(gene.getChromosome()).append('\t')
+                    .append(gene.getStrand()).append('\t')
+                    .append(gene.getStart()).append('\t')
+                    .append(gene.getEnd()).append('\t')
+                    .append(isoforms).append('\t')
+                    .append(exons).append('\t')
+                    .append(mergedExonicLength).append('\t')
+                    .append(intronLengths.length);
+
+            if (intronLengths.length == 0) return line.append("\t.\t.\t.\t.").toString();
+
+            long sum = 0;
+            for (int length : intronLengths) sum += length;
+
+            int n = intronLengths.length;
+            double median = n % 2 == 1 ? intronLengths[n / 2] : (intronLengths[n / 2 - 1] + intronLengths[n / 2]) / 2.0;
+
+            return line.append('\t').append(intronLengths[0])
+                    .append('\t').append(formatNumber(median))
+                    .append('\t').append(formatNumber((double) sum / n))
+                    .append('\t').append(intronLengths[n - 1])
+                    .toString();
+        }
+    }
+
+    public record ContigStats(String contig, int genes, long length, long mergedExonicLength) {
+        double genesPerMb() {
+            return length == 0 ? 0 : genes * 1_000_000.0 / length;
+        }
+
+        String toTsvLine() {
+            return contig + "\t" + genes + "\t" + length + "\t" + formatNumber(genesPerMb()) + "\t" + mergedExonicLength;
+        }
+    }
+
+    private final TreeGtf treeGtf;
+
+    public AnnotationStats(TreeGtf treeGtf) {
+        this.treeGtf = treeGtf;
+    }
+
+    public List<GeneStats> getGeneStats() {
+        return treeGtf.getGenes().parallelStream()
+                .map(GeneStats::of)
+                .toList();
+    }
+
+    /*
+    contigLengths may be empty, a contig without a known length counts up to its last annotated position
+     */
+    public List<ContigStats> getContigStats(List<GeneStats> geneStats, Map<String, Long> contigLengths) {
+        Map<String, List<GeneStats>> byContig = geneStats.parallelStream()
+                .collect(Collectors.groupingBy(stats -> stats.gene().getChromosome(), LinkedHashMap::new, Collectors.toList()));
+
+        return byContig.entrySet().parallelStream()
+                .map(entry -> {
+                    List<GeneStats> contigGenes = entry.getValue();
+                    long lastPosition = 0, exonic = 0;
+
+                    for (GeneStats stats : contigGenes) {
+                        lastPosition = Math.max(lastPosition, stats.gene().getEnd());
+                        exonic += stats.mergedExonicLength();
+                    }
+
+                    long length = contigLengths.getOrDefault(entry.getKey(), lastPosition);
+                    return new ContigStats(entry.getKey(), contigGenes.size(), length, exonic);
+                })
+                .toList();
+    }
+
+    public static void writeGeneStats(List<GeneStats> geneStats, Path outPath) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(outPath)) {
+            writer.write(GENE_HEADER);
+            writer.newLine();
+
+            for (GeneStats stats : geneStats) {
+                writer.write(stats.toTsvLine());
+                writer.newLine();
+            }
+        }
+    }
+
+    public static void writeContigStats(List<ContigStats> contigStats, Path outPath) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(outPath)) {
+            writer.write(CONTIG_HEADER);
+            writer.newLine();
+
+            for (ContigStats stats : contigStats) {
+                writer.write(stats.toTsvLine());
+                writer.newLine();
+            }
+        }
+    }
+
+    /*
+    Contig lengths from the first two columns of a FASTA index (.fai) or any name TAB length file
+     */
+    public static Map<String, Long> readContigLengths(Path lengthsPath) throws IOException {
+        Map<String, Long> lengths = new HashMap<>();
+
+        try (BufferedReader br = Files.newBufferedReader(lengthsPath)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isBlank() || line.charAt(0) == '#') continue;
+
+                String[] columns = line.split("\t");
+                if (columns.length < 2)
+                    throw new IOException("Malformed contig length line in " + lengthsPath + ": " + line);
+
+                lengths.put(columns[0], Long.parseLong(columns[1]));
+            }
+        }
+
+        return lengths;
+    }
+
+    private static String formatNumber(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+
+        options.addOption(Option.builder("gtf")
+                .hasArg()
+                .argName("gtf_file")
+                .required(true)
+                .desc("GTF annotation file")
+                .build());
+
+        options.addOption(Option.builder("o")
+                .longOpt("output")
+                .hasArg()
+                .argName("gene_tsv")
+                .required(true)
+                .desc("Per gene table, keyed by gene id")
+                .build());
+
+        options.addOption(Option.builder("contigs")
+                .hasArg()
+                .argName("contig_tsv")
+                .required(false)
+                .desc("Also write per contig gene counts and density")
+                .build());
+
+        options.addOption(Option.builder("lengths")
+                .hasArg()
+                .argName("fai_file")
+                .required(false)
+                .desc("Contig lengths for the density (FASTA index or name/length table, default: last annotated position)")
+                .build());
+
+        CommandLineParser cliParser = new DefaultParser();
+        CommandLine cmd;
+
+        try {
+            cmd = cliParser.parse(options, args);
+        } catch (ParseException e) {
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("bamfeatures annotation-stats", options, true);
+            System.err.println("Error: " + e.getMessage());
+            return;
+        }
+
+        AnnotationStats annotationStats = new AnnotationStats(TreeGtf.load(Paths.get(cmd.getOptionValue("gtf")), null));
+        List<GeneStats> geneStats = annotationStats.getGeneStats();
+        writeGeneStats(geneStats, Paths.get(cmd.getOptionValue("o")));
+
+        if (cmd.hasOption("contigs")) {
+            Map<String, Long> contigLengths = cmd.hasOption("lengths")
+                    ? readContigLengths(Paths.get(cmd.getOptionValue("lengths")))
+                    : Map.of();
+
+            writeContigStats(annotationStats.getContigStats(geneStats, contigLengths), Paths.get(cmd.getOptionValue("contigs")));
+        }
+    }
+}
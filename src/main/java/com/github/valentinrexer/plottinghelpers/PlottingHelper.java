@@ -1,55 +1,45 @@
 package com.github.valentinrexer.plottinghelpers;
 
 import java.io.BufferedWriter;
-import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 
-import augmentedTree.IntervalTree;
-import com.github.valentinrexer.Gene;
-import com.github.valentinrexer.Region;
 import com.github.valentinrexer.TreeGtf;
 
 public class PlottingHelper {
     private final TreeGtf treeGtf;
 
     public PlottingHelper(Path pathToGtf) {
-        this.treeGtf = new TreeGtf();
-        treeGtf.readInGffFile(pathToGtf, null);
+        this.treeGtf = TreeGtf.load(pathToGtf, null);
     }
 
-    public HashMap<String, Integer> getGeneLengths() {
-        var lenMap = new HashMap<String, Integer>();
-        for (Gene gene : treeGtf.getGenes()) {
-            int mergedLength = 0;
-
-            var mergedTranscriptome = gene.getMergedTranscriptomeForInterval(new Region(Integer.MIN_VALUE, Integer.MAX_VALUE));
-            for (Region mergedBlock : mergedTranscriptome)
-                mergedLength += mergedBlock.inclusiveLength();
-
-            lenMap.put(gene.getGeneName(), mergedLength);
-        }
+    /*
+    Merged exonic length per gene id, see AnnotationStats for the full table
+     */
+    public LinkedHashMap<String, Long> getGeneLengths() {
+        var lenMap = new LinkedHashMap<String, Long>();
+        for (AnnotationStats.GeneStats stats : new AnnotationStats(treeGtf).getGeneStats())
+            lenMap.put(stats.gene().getGeneId(), stats.mergedExonicLength());
 
         return lenMap;
     }
 
-    public static void main(String[] args) {
-        Path gtfPath = Paths.get("/home/valentinrexer/core/uni/bioinformatics/semester7/gobi/bam_data/plotting/complete_bams/Saccharomyces_cerevisiae.R64-1-1.75.gtf");
-        Path homoPath = Paths.get("/home/valentinrexer/core/uni/bioinformatics/semester7/gobi/bam_data/plotting/complete_bams/Homo_sapiens.GRCh37.75.gtf");
-        Path outFile = Paths.get("/home/valentinrexer/core/uni/bioinformatics/semester7/gobi/bam_data/plotting/data/sacc_gene_len.tsv");
-        Path outFileHomo = Paths.get("/home/valentinrexer/core/uni/bioinformatics/semester7/gobi/bam_data/plotting/data/homo_gene_len.tsv");
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: PlottingHelper <gtf_file> <output_tsv>");
+            return;
+        }
 
-        PlottingHelper plottingHelper = new PlottingHelper(homoPath);
+        PlottingHelper plottingHelper = new PlottingHelper(Paths.get(args[0]));
         var outMap = plottingHelper.getGeneLengths();
 
-        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outFileHomo.toFile())))){
-            for (String geneName : outMap.keySet()) {
-                bw.write(geneName + "\t" + outMap.get(geneName) + "\n");
+        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get(args[1]))) {
+            for (String geneId : outMap.keySet()) {
+                bw.write(geneId + "\t" + outMap.get(geneId) + "\n");
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
 }
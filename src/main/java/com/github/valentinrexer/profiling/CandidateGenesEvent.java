@@ -0,0 +1,15 @@
+package com.github.valentinrexer.profiling;
+
+import jdk.jfr.*;
+
+@Name("bamfeatures.CandidateGenes")
+@Label("Candidate Gene Lookup")
+@Category({"bamfeatures"})
+@StackTrace(false)
+public class CandidateGenesEvent extends Event {
+    @Label("Chromosome")
+    public String chromosome;
+
+    @Label("Candidate Count")
+    public int candidateCount;
+}
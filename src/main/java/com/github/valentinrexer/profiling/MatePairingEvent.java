@@ -0,0 +1,9 @@
+package com.github.valentinrexer.profiling;
+
+import jdk.jfr.*;
+
+@Name("bamfeatures.MatePairing")
+@Label("Mate Pairing")
+@Category({"bamfeatures"})
+@StackTrace(false)
+public class MatePairingEvent extends Event {}
@@ -0,0 +1,9 @@
+package com.github.valentinrexer.profiling;
+
+import jdk.jfr.*;
+
+@Name("bamfeatures.Output")
+@Label("Output")
+@Category({"bamfeatures"})
+@StackTrace(false)
+public class OutputEvent extends Event {}
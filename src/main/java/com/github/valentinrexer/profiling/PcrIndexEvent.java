@@ -0,0 +1,9 @@
+package com.github.valentinrexer.profiling;
+
+import jdk.jfr.*;
+
+@Name("bamfeatures.PcrIndex")
+@Label("PCR Index Lookup")
+@Category({"bamfeatures"})
+@StackTrace(false)
+public class PcrIndexEvent extends Event {}
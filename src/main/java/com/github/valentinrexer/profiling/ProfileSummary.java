@@ -0,0 +1,82 @@
+package com.github.valentinrexer.profiling;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+public class ProfileSummary {
+    /*
+    Prints the time spent per pipeline stage and the genes with the most time spent in transcript matching
+    from a recording written with --profile
+     */
+
+    private static final String PREFIX = "bamfeatures.";
+
+    private static final class Stat {
+        long count;
+        long totalNanos;
+        long maxNanos;
+        int transcriptCount;
+
+        void add(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+    }
+
+    public static void print(Path recordingPath, PrintStream out, int topGenes) throws IOException {
+        Map<String, Stat> stages = new TreeMap<>();
+        Map<String, Stat> genes = new HashMap<>();
+
+        try (RecordingFile recording = new RecordingFile(recordingPath)) {
+            while (recording.hasMoreEvents()) {
+                RecordedEvent event = recording.readEvent();
+                String name = event.getEventType().getName();
+                if (!name.startsWith(PREFIX)) continue;
+
+                long nanos = event.getDuration().toNanos();
+                stages.computeIfAbsent(name.substring(PREFIX.length()), k -> new Stat()).add(nanos);
+
+                if (name.equals(PREFIX + "TranscriptMatch")) {
+                    Stat gene = genes.computeIfAbsent(event.getString("geneId"), k -> new Stat());
+                    gene.add(nanos);
+                    gene.transcriptCount = event.getInt("transcriptCount");
+                }
+            }
+        }
+
+        out.printf("%-16s %12s %14s %12s %12s%n", "stage", "events", "total_ms", "mean_us", "max_us");
+        for (var entry : stages.entrySet()) {
+            Stat stat = entry.getValue();
+            out.printf("%-16s %12d %14.1f %12.2f %12.1f%n", entry.getKey(), stat.count, stat.totalNanos / 1e6,
+                    stat.totalNanos / 1e3 / stat.count, stat.maxNanos / 1e3);
+        }
+
+        List<Map.Entry<String, Stat>> slowest = new ArrayList<>(genes.entrySet());
+        slowest.sort((a, b) -> Long.compare(b.getValue().totalNanos, a.getValue().totalNanos));
+
+        out.println();
+        out.printf("%-24s %12s %14s %12s %12s%n", "gene_id", "lookups", "total_ms", "max_us", "transcripts");
+        for (var entry : slowest.subList(0, Math.min(topGenes, slowest.size()))) {
+            Stat stat = entry.getValue();
+            out.printf("%-24s %12d %14.1f %12.1f %12d%n", entry.getKey(), stat.count, stat.totalNanos / 1e6,
+                    stat.maxNanos / 1e3, stat.transcriptCount);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: bamfeatures profile-summary <recording.jfr> [top_genes]");
+            return;
+        }
+
+        int topGenes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        print(Paths.get(args[0]), System.out, topGenes);
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.valentinrexer.profiling;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.List;
+
+public class Profiler implements Closeable {
+    /*
+    Flight recording of the JVM defaults plus all bamfeatures events without threshold.
+    Every record and every candidate gene produces events, so recordings of complete BAM files
+    get large; -sample and -region keep them manageable.
+     */
+
+    private static final List<Class<? extends Event>> EVENTS = List.of(
+            RecordDecodeEvent.class,
+            MatePairingEvent.class,
+            CandidateGenesEvent.class,
+            TranscriptMatchEvent.class,
+            PcrIndexEvent.class,
+            OutputEvent.class
+    );
+
+    private final Recording recording;
+    private final Path destination;
+
+    private Profiler(Recording recording, Path destination) {
+        this.recording = recording;
+        this.destination = destination;
+    }
+
+    public static Profiler start(Path destination) throws IOException {
+        Recording recording;
+        try {
+            recording = new Recording(Configuration.getConfiguration("default"));
+        } catch (ParseException e) {
+            throw new IOException("Could not read the default JFR configuration", e);
+        }
+
+        for (Class<? extends Event> event : EVENTS)
+            recording.enable(event).withoutThreshold();
+
+        recording.setName("bamfeatures");
+        recording.setDestination(destination);
+        recording.start();
+
+        return new Profiler(recording, destination);
+    }
+
+    public Path getDestination() { return destination; }
+
+    @Override
+    public void close() {
+        // stopping writes the recording to its destination
+        recording.stop();
+        recording.close();
+    }
+}
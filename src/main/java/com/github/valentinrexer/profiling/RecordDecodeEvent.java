@@ -0,0 +1,9 @@
+package com.github.valentinrexer.profiling;
+
+import jdk.jfr.*;
+
+@Name("bamfeatures.RecordDecode")
+@Label("Record Decoding")
+@Category({"bamfeatures"})
+@StackTrace(false)
+public class RecordDecodeEvent extends Event {}
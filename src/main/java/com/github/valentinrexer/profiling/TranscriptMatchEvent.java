@@ -0,0 +1,18 @@
+package com.github.valentinrexer.profiling;
+
+import jdk.jfr.*;
+
+@Name("bamfeatures.TranscriptMatch")
+@Label("Transcript Matching")
+@Category({"bamfeatures"})
+@StackTrace(false)
+public class TranscriptMatchEvent extends Event {
+    @Label("Gene Id")
+    public String geneId;
+
+    @Label("Candidate Count")
+    public int candidateCount;
+
+    @Label("Transcript Count")
+    public int transcriptCount;
+}
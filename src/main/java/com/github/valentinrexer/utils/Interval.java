@@ -0,0 +1,9 @@
+package com.github.valentinrexer.utils;
+
+/*
+Closed interval [getStart(), getStop()] that can be stored in an IntervalIndex
+ */
+public interface Interval {
+    int getStart();
+    int getStop();
+}
@@ -0,0 +1,205 @@
+package com.github.valentinrexer.utils;
+
+import java.util.Arrays;
+
+public final class IntervalBuffer {
+    /*
+    Growable buffer of closed intervals packed into one int array: interval i is [2i] (start) and [2i + 1] (end).
+    Meant to be reused, so the per read pair interval work (merging, intron extraction, set comparison)
+    runs without allocating Region objects and collections.
+     */
+
+    private int[] data;
+    private int size;
+
+    public IntervalBuffer() {
+        this(16);
+    }
+
+    public IntervalBuffer(int capacity) {
+        this.data = new int[Math.max(2, capacity * 2)];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(int start, int end) {
+        if (2 * size + 2 > data.length) data = Arrays.copyOf(data, data.length * 2);
+
+        data[2 * size] = start;
+        data[2 * size + 1] = end;
+        size++;
+    }
+
+    public void addAll(int[] packed) {
+        for (int i = 0; i + 1 < packed.length; i += 2) add(packed[i], packed[i + 1]);
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    public int start(int i) { return data[2 * i]; }
+    public int end(int i) { return data[2 * i + 1]; }
+
+    /*
+    Sorts by start, then end. Insertion sort, since block and intron vectors are short and nearly sorted.
+     */
+    public void sort() {
+        for (int i = 1; i < size; i++) {
+            int start = data[2 * i];
+            int end = data[2 * i + 1];
+            int j = i - 1;
+
+            while (j >= 0 && (data[2 * j] > start || (data[2 * j] == start && data[2 * j + 1] > end))) {
+                data[2 * j + 2] = data[2 * j];
+                data[2 * j + 3] = data[2 * j + 1];
+                j--;
+            }
+
+            data[2 * j + 2] = start;
+            data[2 * j + 3] = end;
+        }
+    }
+
+    /*
+    Sorts and removes duplicate intervals, giving the same content as a Set<Region>
+     */
+    public void sortAndDeduplicate() {
+        sort();
+        if (size < 2) return;
+
+        int out = 1;
+        for (int i = 1; i < size; i++) {
+            if (data[2 * i] == data[2 * out - 2] && data[2 * i + 1] == data[2 * out - 1]) continue;
+
+            data[2 * out] = data[2 * i];
+            data[2 * out + 1] = data[2 * i + 1];
+            out++;
+        }
+        size = out;
+    }
+
+    /*
+    Sorts and merges overlapping and adjacent intervals in place, like BamFeatureUtils.mergeVector
+     */
+    public void sortAndMerge() {
+        sort();
+        if (size < 2) return;
+
+        int out = 0;
+        for (int i = 1; i < size; i++) {
+            if (data[2 * out + 1] >= data[2 * i] - 1) {
+                data[2 * out + 1] = Math.max(data[2 * out + 1], data[2 * i + 1]);
+            } else {
+                out++;
+                data[2 * out] = data[2 * i];
+                data[2 * out + 1] = data[2 * i + 1];
+            }
+        }
+        size = out + 1;
+    }
+
+    /*
+    Adds the gaps between consecutive blocks of an alignment (in alignment order) to this buffer
+     */
+    public void addGaps(IntervalBuffer blocks) {
+        for (int i = 0; i < blocks.size - 1; i++) {
+            int gapStart = blocks.end(i) + 1;
+            int gapEnd = blocks.start(i + 1) - 1;
+
+            if (gapEnd >= gapStart) add(gapStart, gapEnd);
+        }
+    }
+
+    public boolean contentEquals(IntervalBuffer other) {
+        return Arrays.equals(data, 0, 2 * size, other.data, 0, 2 * other.size);
+    }
+
+    public boolean contentEquals(int[] packed) {
+        return Arrays.equals(data, 0, 2 * size, packed, 0, packed.length);
+    }
+
+    /*
+    Compares only the intervals of both (sorted, deduplicated) buffers that intersect [start, end]
+     */
+    public boolean intersectingEquals(IntervalBuffer other, int start, int end) {
+        int i = 0, j = 0;
+
+        while (true) {
+            while (i < size && !intersects(start(i), end(i), start, end)) i++;
+            while (j < other.size && !intersects(other.start(j), other.end(j), start, end)) j++;
+
+            if (i == size || j == other.size) return i == size && j == other.size;
+            if (start(i) != other.start(j) || end(i) != other.end(j)) return false;
+
+            i++;
+            j++;
+        }
+    }
+
+    /*
+    Number of distinct intervals in the union of both (sorted, deduplicated) buffers
+     */
+    public int unionSize(IntervalBuffer other) {
+        int i = 0, j = 0, count = 0;
+
+        while (i < size && j < other.size) {
+            int cmp = compare(start(i), end(i), other.start(j), other.end(j));
+            if (cmp <= 0) i++;
+            if (cmp >= 0) j++;
+            count++;
+        }
+
+        return count + (size - i) + (other.size - j);
+    }
+
+    /*
+    Writes the union of both (sorted, deduplicated) buffers to target
+     */
+    public void unionInto(IntervalBuffer other, IntervalBuffer target) {
+        target.clear();
+        int i = 0, j = 0;
+
+        while (i < size || j < other.size) {
+            int cmp = i == size ? 1 : j == other.size ? -1 : compare(start(i), end(i), other.start(j), other.end(j));
+
+            if (cmp <= 0) target.add(start(i), end(i));
+            else target.add(other.start(j), other.end(j));
+
+            if (cmp <= 0) i++;
+            if (cmp >= 0) j++;
+        }
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(data, 2 * size);
+    }
+
+    /*
+    Whether one interval of a sorted, disjoint packed array contains [start, end] completely
+     */
+    public static boolean covers(int[] packed, int start, int end) {
+        int lo = 0, hi = packed.length / 2 - 1, candidate = -1;
+
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (packed[2 * mid] <= start) {
+                candidate = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        return candidate >= 0 && packed[2 * candidate + 1] >= end;
+    }
+
+    private static boolean intersects(int start1, int end1, int start2, int end2) {
+        return start1 <= end2 && end1 >= start2;
+    }
+
+    private static int compare(int start1, int end1, int start2, int end2) {
+        if (start1 != start2) return Integer.compare(start1, start2);
+        return Integer.compare(end1, end2);
+    }
+}
@@ -0,0 +1,216 @@
+package com.github.valentinrexer.utils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.function.Consumer;
+
+public final class IntervalIndex<T extends Interval> {
+    /*
+    Immutable interval index over closed intervals, stored as arrays sorted by start with an implicit
+    augmented tree on top (as in cgranges): element i is a node of level k = number of trailing ones of i,
+    its children are i -/+ 2^(k-1), and maxEnd[i] is the largest end in its subtree.
+    Queries come as callback variants and as variants adding to a given collection.
+    Safe for concurrent queries, nothing is modified after construction.
+     */
+
+    private final Object[] items;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] maxEnds;
+    private final int rootLevel;
+
+    // positions sorted by end, for the left neighbor lookup
+    private final int[] byEnd;
+
+    public IntervalIndex(Collection<? extends T> intervals) {
+        Object[] sorted = intervals.toArray();
+        Arrays.sort(sorted, Comparator.comparingInt(o -> ((Interval) o).getStart()));
+
+        int n = sorted.length;
+        this.items = sorted;
+        this.starts = new int[n];
+        this.ends = new int[n];
+        this.maxEnds = new int[n];
+
+        for (int i = 0; i < n; i++) {
+            starts[i] = ((Interval) sorted[i]).getStart();
+            ends[i] = ((Interval) sorted[i]).getStop();
+        }
+
+        this.rootLevel = buildMaxEnds();
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingInt(i -> ends[i]));
+
+        this.byEnd = new int[n];
+        for (int i = 0; i < n; i++) byEnd[i] = order[i];
+    }
+
+    private int buildMaxEnds() {
+        int n = starts.length;
+        if (n == 0) return -1;
+
+        int lastIndex = 0, last = 0;
+        for (int i = 0; i < n; i += 2) {
+            lastIndex = i;
+            last = maxEnds[i] = ends[i];
+        }
+
+        int k = 1;
+        for (; (1L << k) <= n; k++) {
+            int x = 1 << (k - 1);
+            int firstNode = (x << 1) - 1;
+            int step = x << 2;
+
+            for (int i = firstNode; i < n; i += step) {
+                int leftEnd = maxEnds[i - x];
+                int rightEnd = i + x < n ? maxEnds[i + x] : last;
+                maxEnds[i] = Math.max(ends[i], Math.max(leftEnd, rightEnd));
+            }
+
+            // the rightmost node of this level may have no right subtree inside the array,
+            // last carries the largest end of the incomplete right part upwards
+            lastIndex = ((lastIndex >> k) & 1) != 0 ? lastIndex - x : lastIndex + x;
+            if (lastIndex < n && maxEnds[lastIndex] > last) last = maxEnds[lastIndex];
+        }
+
+        return k - 1;
+    }
+
+    public int size() { return items.length; }
+
+    @SuppressWarnings("unchecked")
+    private T item(int i) {
+        return (T) items[i];
+    }
+
+    /*
+    All intervals overlapping [start, end], in order of their start
+     */
+    public void forEachIntersecting(int start, int end, Consumer<? super T> action) {
+        forEachBounded(end, start, action);
+    }
+
+    /*
+    All intervals containing [start, end] completely, in order of their start
+     */
+    public void forEachSpanning(int start, int end, Consumer<? super T> action) {
+        forEachBounded(start, end, action);
+    }
+
+    /*
+    All intervals starting at or before maxStart and ending at or after minEnd.
+    Overlap and containment queries are both of this form.
+     */
+    private void forEachBounded(int maxStart, int minEnd, Consumer<? super T> action) {
+        int n = starts.length;
+        if (n == 0) return;
+
+        // explicit stack of entries packed as node << 8 | level << 1 | left child done, the tree height is below 32
+        long[] stack = new long[64];
+        int t = 0;
+        stack[t++] = ((1L << rootLevel) - 1) << 8 | (long) rootLevel << 1;
+
+        while (t > 0) {
+            long entry = stack[--t];
+            long node = entry >>> 8;
+            int level = (int) (entry >>> 1) & 0x7f;
+
+            if (level <= 3) {
+                // small subtree, scan it linearly
+                long first = node >> level << level;
+                long last = Math.min(first + (1L << (level + 1)) - 1, n);
+
+                for (int i = (int) first; i < last && starts[i] <= maxStart; i++)
+                    if (ends[i] >= minEnd) action.accept(item(i));
+            } else if ((entry & 1) == 0) {
+                long left = node - (1L << (level - 1));
+                stack[t++] = entry | 1;
+
+                // the left child may lie beyond the array, its subtree can still reach into it
+                if (left >= n || maxEnds[(int) left] >= minEnd)
+                    stack[t++] = left << 8 | (long) (level - 1) << 1;
+            } else if (node < n && starts[(int) node] <= maxStart) {
+                if (ends[(int) node] >= minEnd) action.accept(item((int) node));
+                stack[t++] = (node + (1L << (level - 1))) << 8 | (long) (level - 1) << 1;
+            }
+        }
+    }
+
+    /*
+    All intervals lying completely within [start, end], i.e. starting in it and not ending after it
+     */
+    public void forEachSpannedBy(int start, int end, Consumer<? super T> action) {
+        for (int i = firstStartAtLeast(start); i < starts.length && starts[i] <= end; i++)
+            if (ends[i] <= end) action.accept(item(i));
+    }
+
+    /*
+    The intervals ending before start with the largest end
+     */
+    public void forEachLeftNeighbor(int start, int end, Consumer<? super T> action) {
+        // last position in end order with an end below start
+        int lo = 0, hi = byEnd.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[byEnd[mid]] < start) lo = mid + 1;
+            else hi = mid;
+        }
+
+        if (lo == 0) return;
+        int closestEnd = ends[byEnd[lo - 1]];
+
+        int first = lo - 1;
+        while (first > 0 && ends[byEnd[first - 1]] == closestEnd) first--;
+
+        for (int i = first; i < lo; i++) action.accept(item(byEnd[i]));
+    }
+
+    /*
+    The intervals starting after end with the smallest start
+     */
+    public void forEachRightNeighbor(int start, int end, Consumer<? super T> action) {
+        int first = firstStartAtLeast(end + 1);
+        if (first == starts.length) return;
+
+        int closestStart = starts[first];
+        for (int i = first; i < starts.length && starts[i] == closestStart; i++) action.accept(item(i));
+    }
+
+    private int firstStartAtLeast(int position) {
+        int lo = 0, hi = starts.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] < position) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    public <C extends Collection<? super T>> C getIntervalsIntersecting(int start, int end, C out) {
+        forEachIntersecting(start, end, out::add);
+        return out;
+    }
+
+    public <C extends Collection<? super T>> C getIntervalsSpanning(int start, int end, C out) {
+        forEachSpanning(start, end, out::add);
+        return out;
+    }
+
+    public <C extends Collection<? super T>> C getIntervalsSpannedBy(int start, int end, C out) {
+        forEachSpannedBy(start, end, out::add);
+        return out;
+    }
+
+    public <C extends Collection<? super T>> C getIntervalsLeftNeighbor(int start, int end, C out) {
+        forEachLeftNeighbor(start, end, out::add);
+        return out;
+    }
+
+    public <C extends Collection<? super T>> C getIntervalsRightNeighbor(int start, int end, C out) {
+        forEachRightNeighbor(start, end, out::add);
+        return out;
+    }
+}
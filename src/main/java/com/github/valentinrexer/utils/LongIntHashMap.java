@@ -0,0 +1,114 @@
+package com.github.valentinrexer.utils;
+
+import java.util.Arrays;
+
+public final class LongIntHashMap {
+    /*
+    Open addressing map from long to int with linear probing, without boxing.
+    The key 0 marks an empty slot and cannot be stored.
+     */
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    public LongIntHashMap() {
+        this(64);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public static long pack(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    public static int high(long key) { return (int) (key >>> 32); }
+    public static int low(long key) { return (int) key; }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private int slot(long key) {
+        int i = hash(key) & mask;
+        while (keys[i] != 0 && keys[i] != key) i = (i + 1) & mask;
+        return i;
+    }
+
+    public int get(long key) {
+        int i = slot(key);
+        return keys[i] == 0 ? 0 : values[i];
+    }
+
+    public boolean containsKey(long key) {
+        return keys[slot(key)] != 0;
+    }
+
+    public void put(long key, int value) {
+        if (key == 0) throw new IllegalArgumentException("0 cannot be used as key");
+
+        int i = slot(key);
+        if (keys[i] == 0) {
+            keys[i] = key;
+            if (++size > keys.length * LOAD_FACTOR) {
+                values[i] = value;
+                rehash();
+                return;
+            }
+        }
+        values[i] = value;
+    }
+
+    public int addTo(long key, int delta) {
+        int value = get(key) + delta;
+        put(key, value);
+        return value;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(keys.length * 2);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0) continue;
+            int slot = slot(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    public long[] sortedKeys() {
+        long[] sorted = new long[size];
+        int n = 0;
+
+        for (long key : keys)
+            if (key != 0) sorted[n++] = key;
+
+        Arrays.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,181 @@
+package com.github.valentinrexer;
+
+import htsjdk.samtools.*;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static com.github.valentinrexer.utils.PairedRecords.mate;
+import static org.junit.jupiter.api.Assertions.*;
+
+class AutoCollationTest {
+    /*
+    With -collate auto, name sorted input is paired as it comes unless an output needs its pairs ordered,
+    input in coordinate order is streamed whatever its header says and only shuffled input is collated.
+    Every template is used by four pairs spread over the name order, with pairs of the other chromosome
+    in between, so their PCR indices show whether a chromosome change reset them.
+     */
+
+    private static final int PAIRS = 2_000;
+    private static final int TEMPLATES = 500;
+
+    private static TreeGtf treeGtf;
+    private static List<SAMRecord> nameOrdered;
+    private static SAMFileHeader header;
+
+    // keeps the pairs in the order they were written
+    private static final class RecordingOutput implements FeatureOutput {
+        final boolean ordered;
+        final List<PairFeatures> written = new ArrayList<>();
+
+        RecordingOutput(boolean ordered) {
+            this.ordered = ordered;
+        }
+
+        @Override
+        public boolean startChromosome(String chromosome) {
+            return true;
+        }
+
+        @Override
+        public void write(PairFeatures features) {
+            written.add(features);
+        }
+
+        @Override
+        public boolean needsOrderedPairs() {
+            return ordered;
+        }
+
+        @Override
+        public void finish() {}
+
+        @Override
+        public void close() {}
+    }
+
+    @BeforeAll
+    static void createPairs(@TempDir Path dir) throws IOException {
+        Path gtf = dir.resolve("empty.gtf");
+        Files.writeString(gtf, "");
+        treeGtf = TreeGtf.load(gtf, null);
+
+        header = new SAMFileHeader(new SAMSequenceDictionary(List.of(
+                new SAMSequenceRecord("chr1", 100_000), new SAMSequenceRecord("chr2", 100_000))));
+
+        Random random = new Random(11);
+        int[][] templates = new int[TEMPLATES][];
+        for (int t = 0; t < TEMPLATES; t++)
+            templates[t] = new int[] {random.nextInt(2), 1 + random.nextInt(90_000), random.nextInt(300), random.nextInt(2)};
+
+        nameOrdered = new ArrayList<>();
+        for (int p = 0; p < PAIRS; p++) {
+            int[] template = templates[p % TEMPLATES];
+            String name = String.format("p%05d", p);
+            int firstStart = template[1], lastStart = firstStart + template[2];
+            boolean negative = template[3] == 1;
+
+            nameOrdered.add(mate(header, name, template[0], firstStart, "50M", true, negative, lastStart));
+            nameOrdered.add(mate(header, name, template[0], lastStart, "50M", false, !negative, firstStart));
+        }
+    }
+
+    private static Path writeSam(Path dir, String name, SAMFileHeader.SortOrder sortOrder, List<SAMRecord> records) {
+        SAMFileHeader marked = header.clone();
+        marked.setSortOrder(sortOrder);
+
+        Path path = dir.resolve(name);
+        try (SAMFileWriter writer = new SAMFileWriterFactory().makeSAMWriter(marked, true, path)) {
+            for (SAMRecord record : records) writer.addAlignment(record);
+        }
+        return path;
+    }
+
+    private static List<PairFeatures> run(Path sam, boolean ordered, ExtractorOptions.Collation collation,
+                                          Path tempDirectory) throws IOException {
+        RecordingOutput output = new RecordingOutput(ordered);
+        ExtractorOptions options = new ExtractorOptions().setCollation(collation).setTempDirectory(tempDirectory);
+        FeatureExtractor.run(treeGtf, sam, output, null, options);
+        return output.written;
+    }
+
+    private static List<String> names(List<PairFeatures> pairs) {
+        List<String> names = new ArrayList<>();
+        for (PairFeatures pair : pairs) names.add(pair.readName());
+        return names;
+    }
+
+    private static Map<String, String> linesByName(List<PairFeatures> pairs) {
+        Map<String, String> lines = new HashMap<>();
+        for (PairFeatures pair : pairs) lines.put(pair.readName(), pair.toTsvLine());
+        return lines;
+    }
+
+    private static void assertPairStartOrder(List<PairFeatures> pairs) {
+        for (int i = 1; i < pairs.size(); i++) {
+            PairFeatures previous = pairs.get(i - 1), pair = pairs.get(i);
+            int chromosomeOrder = previous.chromosome().compareTo(pair.chromosome());
+
+            assertTrue(chromosomeOrder < 0 || (chromosomeOrder == 0 && previous.getBlockStart(0) <= pair.getBlockStart(0)),
+                    pair.readName() + " comes after " + previous.readName());
+        }
+    }
+
+    @Test
+    void nameSortedInputIsStreamed(@TempDir Path dir) throws IOException {
+        Path sam = writeSam(dir, "queryname.sam", SAMFileHeader.SortOrder.queryname, nameOrdered);
+
+        List<PairFeatures> streamed = run(sam, false, ExtractorOptions.Collation.AUTO, dir);
+        assertEquals(PAIRS, streamed.size());
+
+        // the pairs come out in name order, so they were not collated
+        List<String> names = names(streamed);
+        List<String> sortedNames = new ArrayList<>(names);
+        Collections.sort(sortedNames);
+        assertEquals(sortedNames, names);
+
+        // the chromosome changes between the duplicates of a template did not reset their PCR indices
+        for (int p = 0; p < PAIRS; p++)
+            assertEquals(p / TEMPLATES, streamed.get(p).pcrIndex(), streamed.get(p).readName());
+
+        List<PairFeatures> collated = run(sam, false, ExtractorOptions.Collation.ALWAYS, dir);
+        assertEquals(linesByName(collated), linesByName(streamed));
+    }
+
+    @Test
+    void nameSortedInputIsCollatedForOrderedOutputs(@TempDir Path dir) throws IOException {
+        Path sam = writeSam(dir, "queryname.sam", SAMFileHeader.SortOrder.queryname, nameOrdered);
+
+        List<PairFeatures> pairs = run(sam, true, ExtractorOptions.Collation.AUTO, dir);
+        assertEquals(PAIRS, pairs.size());
+        assertPairStartOrder(pairs);
+    }
+
+    @Test
+    void onlyShuffledInputIsCollated(@TempDir Path dir) throws IOException {
+        List<SAMRecord> coordinateOrdered = new ArrayList<>(nameOrdered);
+        coordinateOrdered.sort(new SAMRecordCoordinateComparator());
+        Path inOrder = writeSam(dir, "unknown.sam", SAMFileHeader.SortOrder.unknown, coordinateOrdered);
+
+        // streamed, each pair is written as soon as its right mate is read
+        List<PairFeatures> streamed = run(inOrder, true, ExtractorOptions.Collation.AUTO, dir);
+        Set<String> rightMates = new LinkedHashSet<>();
+        Set<String> seen = new HashSet<>();
+        for (SAMRecord record : coordinateOrdered) if (!seen.add(record.getReadName())) rightMates.add(record.getReadName());
+        assertEquals(new ArrayList<>(rightMates), names(streamed));
+
+        List<SAMRecord> shuffled = new ArrayList<>(nameOrdered);
+        Collections.shuffle(shuffled, new Random(7));
+        Path unsorted = writeSam(dir, "unsorted.sam", SAMFileHeader.SortOrder.unsorted, shuffled);
+
+        List<PairFeatures> collated = run(unsorted, false, ExtractorOptions.Collation.AUTO, dir);
+        assertEquals(PAIRS, collated.size());
+        assertPairStartOrder(collated);
+        assertEquals(linesByName(streamed), linesByName(collated));
+    }
+}
@@ -0,0 +1,143 @@
+package com.github.valentinrexer;
+
+import htsjdk.samtools.*;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+import static com.github.valentinrexer.utils.PairedRecords.mate;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BamFeatureEngineTest {
+    /*
+    A stream cut short, closed early or dropped must not leave its extraction thread waiting for demand
+    (and holding the input open) forever. The extraction threads are platform threads of the test,
+    so it can wait for them to end.
+     */
+
+    private static final int PAIRS = 2_000;
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private static TreeGtf treeGtf;
+    private static Path sam;
+
+    private final List<Thread> extractions = new CopyOnWriteArrayList<>();
+    private final Executor executor = runnable -> {
+        Thread thread = new Thread(runnable, "test-extraction");
+        extractions.add(thread);
+        thread.start();
+    };
+
+    @BeforeAll
+    static void writeInput(@TempDir Path dir) throws IOException {
+        Path gtf = dir.resolve("test.gtf");
+        Files.writeString(gtf, String.join("\n",
+                "chr1\tsrc\tgene\t100\t90000\t.\t+\t.\tgene_id \"G1\";",
+                "chr1\tsrc\texon\t100\t50000\t.\t+\t.\tgene_id \"G1\"; transcript_id \"T1\";",
+                ""));
+        treeGtf = TreeGtf.load(gtf, null);
+
+        SAMFileHeader header = new SAMFileHeader(new SAMSequenceDictionary(List.of(new SAMSequenceRecord("chr1", 100_000))));
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        sam = dir.resolve("test.sam");
+
+        Random random = new Random(13);
+        try (SAMFileWriter writer = new SAMFileWriterFactory().makeSAMWriter(header, false, sam)) {
+            for (int p = 0; p < PAIRS; p++) {
+                int firstStart = 1 + random.nextInt(99_000);
+                int lastStart = firstStart + random.nextInt(300);
+                writer.addAlignment(mate(header, "p" + p, 0, firstStart, "50M", true, false, lastStart));
+                writer.addAlignment(mate(header, "p" + p, 0, lastStart, "50M", false, true, firstStart));
+            }
+        }
+    }
+
+    private BamFeatureEngine engine() {
+        return new BamFeatureEngine(treeGtf, null, new ExtractorOptions(), executor);
+    }
+
+    private Thread onlyExtraction() {
+        assertEquals(1, extractions.size());
+        return extractions.getFirst();
+    }
+
+    private static void assertEnds(Thread extraction) throws InterruptedException {
+        extraction.join(TIMEOUT_MILLIS);
+        assertFalse(extraction.isAlive(), "the extraction is still running");
+    }
+
+    @Test
+    void streamDeliversEveryPair() throws InterruptedException {
+        try (Stream<PairFeatures> pairs = engine().stream(sam, 16)) {
+            assertEquals(PAIRS, pairs.count());
+        }
+        assertEnds(onlyExtraction());
+    }
+
+    @Test
+    void limitThenCloseStopsExtraction() throws InterruptedException {
+        List<PairFeatures> first;
+        try (Stream<PairFeatures> pairs = engine().stream(sam, 16)) {
+            first = pairs.limit(5).toList();
+        }
+
+        assertEquals(5, first.size());
+        assertEnds(onlyExtraction());
+    }
+
+    @Test
+    void closeCancelsWaitingExtraction() throws InterruptedException {
+        Stream<PairFeatures> pairs = engine().stream(sam, 4);
+        assertTrue(pairs.iterator().hasNext());
+
+        // the buffer is full, so the extraction waits for demand until the stream is closed
+        Thread extraction = onlyExtraction();
+        extraction.join(200);
+        assertTrue(extraction.isAlive());
+
+        pairs.close();
+        assertEnds(extraction);
+    }
+
+    private void takeOneAndDrop() {
+        Iterator<PairFeatures> pairs = engine().stream(sam, 4).iterator();
+        assertTrue(pairs.hasNext());
+    }
+
+    @Test
+    void droppedStreamIsCancelledWhenCollected() throws InterruptedException {
+        takeOneAndDrop();
+        Thread extraction = onlyExtraction();
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (extraction.isAlive() && System.currentTimeMillis() < deadline) {
+            System.gc();
+            extraction.join(100);
+        }
+
+        assertFalse(extraction.isAlive(), "the extraction of a dropped stream is still running");
+    }
+
+    @Test
+    void featuresCannotBeModified() {
+        try (Stream<PairFeatures> pairs = engine().stream(sam)) {
+            PairFeatures features = pairs.findFirst().orElseThrow();
+
+            int start = features.getBlockStart(0);
+            features.blocks()[0] = -1;
+            assertEquals(start, features.getBlockStart(0));
+            assertEquals(start, features.blocks()[0]);
+
+            assertThrows(UnsupportedOperationException.class, () -> features.genicLevels().clear());
+            assertThrows(UnsupportedOperationException.class, () -> features.genicLevels().getFirst().transcripts().clear());
+        }
+    }
+}
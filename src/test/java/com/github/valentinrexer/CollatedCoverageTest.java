@@ -0,0 +1,127 @@
+package com.github.valentinrexer;
+
+import htsjdk.samtools.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static com.github.valentinrexer.utils.PairedRecords.mate;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CollatedCoverageTest {
+    /*
+    Coverage of a shuffled input run through the MateCollator (with spilled runs) has to equal the coverage
+    of the same records streamed in coordinate order, and the collated pairs have to respect the advance
+    watermark, so the coverage window keeps sliding instead of growing to the whole chromosome.
+     */
+
+    private static final int CONTIG_LENGTH = 1_000_000;
+    private static final int PAIRS = 4_000;
+
+    // fails on a pair that starts before a position the input already advanced past
+    private static final class WatermarkCheck implements FeatureOutput {
+        final Map<String, Integer> watermarks = new HashMap<>();
+        String chromosome;
+
+        @Override
+        public boolean startChromosome(String chromosome) {
+            this.chromosome = chromosome;
+            return true;
+        }
+
+        @Override
+        public void write(PairFeatures features) {
+            if (features.splitInconsistent()) return;
+            int watermark = watermarks.getOrDefault(chromosome, 0);
+            assertTrue(features.getBlockStart(0) >= watermark, features.readName() + " starts before " + watermark);
+        }
+
+        @Override
+        public void advance(String chromosome, int position) {
+            assertTrue(position >= watermarks.getOrDefault(chromosome, 0), "watermark moved back on " + chromosome);
+            watermarks.put(chromosome, position);
+        }
+
+        @Override
+        public void finish() {}
+
+        @Override
+        public void close() {}
+    }
+
+    private static SAMFileHeader header(SAMFileHeader.SortOrder sortOrder) {
+        SAMFileHeader header = new SAMFileHeader(new SAMSequenceDictionary(List.of(
+                new SAMSequenceRecord("chr1", CONTIG_LENGTH), new SAMSequenceRecord("chr2", CONTIG_LENGTH))));
+        header.setSortOrder(sortOrder);
+        return header;
+    }
+
+    private static List<SAMRecord> randomPairs(SAMFileHeader header) {
+        Random random = new Random(3);
+        String[] cigars = {"60M", "20M300N40M", "30M2D30M", "10S50M"};
+        List<SAMRecord> records = new ArrayList<>();
+
+        for (int p = 0; p < PAIRS; p++) {
+            int contig = random.nextInt(2);
+            int firstStart = 1 + random.nextInt(CONTIG_LENGTH - 2_000);
+            int lastStart = firstStart + random.nextInt(400);
+            boolean negative = random.nextBoolean();
+
+            records.add(mate(header, "p" + p, contig, firstStart, cigars[random.nextInt(cigars.length)], true, negative, lastStart));
+            records.add(mate(header, "p" + p, contig, lastStart, cigars[random.nextInt(cigars.length)], false, !negative, firstStart));
+        }
+
+        return records;
+    }
+
+    private static void writeSam(Path path, SAMFileHeader header, List<SAMRecord> records) {
+        try (SAMFileWriter writer = new SAMFileWriterFactory().makeSAMWriter(header, false, path)) {
+            for (SAMRecord record : records) writer.addAlignment(record);
+        }
+    }
+
+    private static Map<String, Integer> runCoverage(TreeGtf treeGtf, Path sam, Path bedGraph, ExtractorOptions options) throws IOException {
+        WatermarkCheck check = new WatermarkCheck();
+        FeatureOutput output = new CompositeOutput(List.of(new CoverageOutput(bedGraph, false, null), check));
+        FeatureExtractor.run(treeGtf, sam, output, null, options);
+        return check.watermarks;
+    }
+
+    @Test
+    void collatedCoverageMatchesStreamedCoverage(@TempDir Path dir) throws IOException {
+        Path gtf = dir.resolve("empty.gtf");
+        Files.writeString(gtf, "");
+        TreeGtf treeGtf = TreeGtf.load(gtf, null);
+
+        SAMFileHeader sortedHeader = header(SAMFileHeader.SortOrder.coordinate);
+        Path sorted = dir.resolve("sorted.sam");
+        writeSam(sorted, sortedHeader, randomPairs(sortedHeader));
+
+        SAMFileHeader unsortedHeader = header(SAMFileHeader.SortOrder.unsorted);
+        List<SAMRecord> shuffled = randomPairs(unsortedHeader);
+        Collections.shuffle(shuffled, new Random(5));
+        Path unsorted = dir.resolve("unsorted.sam");
+        writeSam(unsorted, unsortedHeader, shuffled);
+
+        Path streamed = dir.resolve("streamed.bedgraph");
+        runCoverage(treeGtf, sorted, streamed, new ExtractorOptions());
+
+        Path collated = dir.resolve("collated.bedgraph");
+        ExtractorOptions collation = new ExtractorOptions()
+                .setCollation(ExtractorOptions.Collation.ALWAYS)
+                .setCollationMemory(64 << 10)
+                .setTempDirectory(dir);
+        Map<String, Integer> watermarks = runCoverage(treeGtf, unsorted, collated, collation);
+
+        assertTrue(Files.size(streamed) > 0);
+        assertEquals(Files.readAllLines(streamed), Files.readAllLines(collated));
+
+        // the watermark reached the end of both chromosomes, far beyond the initial coverage window
+        assertTrue(watermarks.get("chr1") > CONTIG_LENGTH / 2, "chr1 watermark " + watermarks.get("chr1"));
+        assertTrue(watermarks.get("chr2") > CONTIG_LENGTH / 2, "chr2 watermark " + watermarks.get("chr2"));
+    }
+}
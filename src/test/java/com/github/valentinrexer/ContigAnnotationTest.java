@@ -0,0 +1,76 @@
+package com.github.valentinrexer;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContigAnnotationTest {
+
+    private static TreeGtf treeGtf;
+
+    @BeforeAll
+    static void loadAnnotation(@TempDir Path dir) throws IOException {
+        Path gtf = dir.resolve("contigs.gtf");
+        List<String> lines = new ArrayList<>();
+
+        for (String contig : List.of("chr1", "2", "MT")) {
+            String gene = "gene_id \"G" + contig + "\";";
+            lines.add(contig + "\tsrc\tgene\t100\t900\t.\t+\t.\t" + gene);
+            lines.add(contig + "\tsrc\texon\t100\t900\t.\t+\t.\t" + gene + " transcript_id \"T" + contig + "\";");
+        }
+        Files.write(gtf, lines);
+
+        treeGtf = TreeGtf.load(gtf, null);
+    }
+
+    private static ContigAnnotation bind(boolean automatic, String... contigs) {
+        List<SAMSequenceRecord> sequences = new ArrayList<>();
+        for (String contig : contigs) sequences.add(new SAMSequenceRecord(contig, 10_000));
+        return treeGtf.bind(new SAMSequenceDictionary(sequences), new ContigAliases(automatic));
+    }
+
+    private static List<String> genesAt(ContigAnnotation annotation, int referenceIndex) {
+        List<String> genes = new ArrayList<>();
+        annotation.forEachContainingGene(referenceIndex, 200, 300, null, gene -> genes.add(gene.getGeneId()));
+        return genes;
+    }
+
+    @Test
+    void exactNamesWinOverPrefixToggling() {
+        // 1 comes first in the header, but chr1 is named like the annotation seqid
+        ContigAnnotation annotation = bind(true, "1", "chr1", "chr2");
+
+        assertNull(annotation.getAnnotationContig("1"));
+        assertEquals("chr1", annotation.getAnnotationContig("chr1"));
+        assertEquals("2", annotation.getAnnotationContig("chr2"));
+
+        assertEquals(List.of(), genesAt(annotation, 0));
+        assertEquals(List.of("Gchr1"), genesAt(annotation, 1));
+        assertEquals(List.of("G2"), genesAt(annotation, 2));
+    }
+
+    @Test
+    void prefixTogglingIsOptIn() {
+        ContigAnnotation exact = bind(false, "1", "chr2", "chrM");
+        assertNull(exact.getAnnotationContig("1"));
+        assertNull(exact.getAnnotationContig("chr2"));
+        assertNull(exact.getAnnotationContig("chrM"));
+        assertEquals(List.of("2", "MT", "chr1"), exact.getUnmatchedAnnotationContigs());
+
+        ContigAnnotation toggled = bind(true, "1", "chr2", "chrM");
+        assertEquals("chr1", toggled.getAnnotationContig("1"));
+        assertEquals("2", toggled.getAnnotationContig("chr2"));
+        assertEquals("MT", toggled.getAnnotationContig("chrM"));
+        assertEquals(List.of(), toggled.getUnmatchedAnnotationContigs());
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.valentinrexer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CountsOutputTest {
+    /*
+    Workers count into their own counters, the file written by finish() has to hold the sums over all of them.
+    1000 genes with seven columns each span more than one counter page.
+     */
+
+    private static final int GENES = 1_000;
+    private static final int THREADS = 8;
+    private static final int PAIRS_PER_THREAD = 20_000;
+
+    @Test
+    void concurrentCountsAddUp(@TempDir Path dir) throws IOException, InterruptedException, ExecutionException {
+        Path gtf = dir.resolve("genes.gtf");
+        List<String> lines = new ArrayList<>();
+        for (int g = 0; g < GENES; g++) {
+            String gene = "gene_id \"G" + g + "\";";
+            int start = 1 + g * 1_000;
+            lines.add("chr1\tsrc\tgene\t" + start + "\t" + (start + 500) + "\t.\t+\t.\t" + gene);
+            lines.add("chr1\tsrc\texon\t" + start + "\t" + (start + 500) + "\t.\t+\t.\t" + gene + " transcript_id \"T" + g + "\";");
+        }
+        Files.write(gtf, lines);
+
+        TreeGtf treeGtf = TreeGtf.load(gtf, null);
+        List<Gene> genes = treeGtf.getGenes();
+        Path out = dir.resolve("counts.tsv");
+        CountsOutput output = new CountsOutput(out, treeGtf);
+
+        // most pairs hit the same few genes, the case a shared counter handles worst
+        long[] expectedTranscriptomic = new long[GENES];
+        List<Callable<long[]>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            long seed = t;
+            workers.add(() -> {
+                Random random = new Random(seed);
+                long[] counted = new long[GENES];
+
+                for (int p = 0; p < PAIRS_PER_THREAD; p++) {
+                    Gene gene = genes.get(random.nextInt(4) == 0 ? random.nextInt(GENES) : random.nextInt(3));
+                    GenicLevelContainer level = new GenicLevelContainer(GenicLevel.TRANSCRIPTOMIC, gene, gene.getTranscripts());
+                    output.write(new PairFeatures("p", "chr1", true, new int[] {gene.getStart(), gene.getStart() + 50},
+                            new int[0], new int[0], false, 0, 0, 0, List.of(level), 0, false, 0));
+                    counted[gene.getOrdinal()]++;
+                }
+
+                return counted;
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (Future<long[]> counted : executor.invokeAll(workers)) {
+                long[] perGene = counted.get();
+                for (int g = 0; g < GENES; g++) expectedTranscriptomic[g] += perGene[g];
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        output.finish();
+
+        long total = 0;
+        for (String line : Files.readAllLines(out)) {
+            String[] columns = line.split("\t");
+            if (!columns[0].equals("gene") && !columns[0].equals("transcript")) continue;
+
+            int ordinal = Integer.parseInt(columns[2].substring(1));
+            // transcriptomic, unsplit and unique all count every pair of the gene
+            assertEquals(expectedTranscriptomic[ordinal], Long.parseLong(columns[3]), line);
+            assertEquals(expectedTranscriptomic[ordinal], Long.parseLong(columns[7]), line);
+            assertEquals(expectedTranscriptomic[ordinal], Long.parseLong(columns[8]), line);
+            if (columns[0].equals("gene")) total += Long.parseLong(columns[3]);
+        }
+
+        assertEquals((long) THREADS * PAIRS_PER_THREAD, total);
+    }
+}
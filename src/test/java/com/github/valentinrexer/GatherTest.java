@@ -0,0 +1,56 @@
+package com.github.valentinrexer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GatherTest {
+    /*
+    Slots of the same plan are only gathered if they were also written from the same inputs and options
+     */
+
+    private static final String PLAN = "c0ffee00";
+
+    private static Map<String, String> run(String frStrand) {
+        Map<String, String> run = new LinkedHashMap<>();
+        run.put("gtf", "/data/genes.gtf 100 1");
+        run.put("bam", "/data/reads.bam 200 2");
+        run.put("frstrand", frStrand);
+        return run;
+    }
+
+    private static Path slot(Path dir, int index, Map<String, String> run) throws IOException {
+        Path out = dir.resolve("slot" + index + ".tsv");
+        Files.write(out, List.of("pair" + index + "a", "pair" + index + "b"));
+        ScatterManifest.describe(out, index, 2, PLAN, ScatterManifest.TSV, run).write(out);
+        return out;
+    }
+
+    @Test
+    void slotsOfOneRunAreConcatenated(@TempDir Path dir) throws IOException {
+        List<Path> slots = List.of(slot(dir, 1, run("-")), slot(dir, 0, run("-")));
+        assertEquals(run("-"), ScatterManifest.read(slots.getFirst()).run());
+
+        Path gathered = dir.resolve("gathered.tsv");
+        assertEquals(4, Gather.run(slots, gathered));
+        assertEquals(List.of("pair0a", "pair0b", "pair1a", "pair1b"), Files.readAllLines(gathered));
+    }
+
+    @Test
+    void slotsWithDifferentOptionsAreRefused(@TempDir Path dir) throws IOException {
+        List<Path> slots = List.of(slot(dir, 0, run("-")), slot(dir, 1, run("true")));
+        Path gathered = dir.resolve("gathered.tsv");
+
+        IllegalArgumentException refused = assertThrows(IllegalArgumentException.class, () -> Gather.run(slots, gathered));
+        assertTrue(refused.getMessage().contains("[frstrand]"), refused.getMessage());
+        assertFalse(Files.exists(gathered));
+    }
+}
@@ -0,0 +1,203 @@
+package com.github.valentinrexer;
+
+import com.github.valentinrexer.utils.BamFeatureUtils;
+import com.github.valentinrexer.utils.PairedRecords;
+import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReadPairTest {
+    /*
+    Pair features on random CIGARs (M/N/D/I/S mixes, overlapping and identical mates) against the Region and
+    HashSet logic ReadPair used before the packed kernel
+     */
+
+    private static final int ROUNDS = 20_000;
+
+    private static SAMFileHeader header;
+    private static ContigAnnotation annotation;
+
+    @BeforeAll
+    static void loadAnnotation(@TempDir Path dir) throws IOException {
+        Path gtf = dir.resolve("test.gtf");
+        Files.writeString(gtf, String.join("\n",
+                "chr1\tsrc\tgene\t100\t900\t.\t+\t.\tgene_id \"G1\";",
+                "chr1\tsrc\ttranscript\t100\t900\t.\t+\t.\tgene_id \"G1\"; transcript_id \"T1\";",
+                "chr1\tsrc\texon\t100\t300\t.\t+\t.\tgene_id \"G1\"; transcript_id \"T1\";",
+                "chr1\tsrc\texon\t500\t900\t.\t+\t.\tgene_id \"G1\"; transcript_id \"T1\";",
+                ""));
+
+        header = new SAMFileHeader(new SAMSequenceDictionary(List.of(new SAMSequenceRecord("chr1", 100_000))));
+        annotation = TreeGtf.load(gtf, null).bind(header.getSequenceDictionary(), new ContigAliases(true));
+    }
+
+    private final Random random = new Random(7);
+
+    private String randomCigar() {
+        StringBuilder cigar = new StringBuilder();
+        if (random.nextInt(4) == 0) cigar.append(1 + random.nextInt(10)).append('S');
+
+        cigar.append(1 + random.nextInt(40)).append('M');
+        int gaps = random.nextInt(4);
+
+        for (int i = 0; i < gaps; i++) {
+            switch (random.nextInt(4)) {
+                case 0, 1 -> cigar.append(20 + random.nextInt(200)).append('N');
+                case 2 -> cigar.append(1 + random.nextInt(3)).append('D');
+                default -> cigar.append(1 + random.nextInt(3)).append('I');
+            }
+            cigar.append(1 + random.nextInt(40)).append('M');
+        }
+
+        if (random.nextInt(4) == 0) cigar.append(1 + random.nextInt(10)).append('S');
+        return cigar.toString();
+    }
+
+    private SAMRecord record(String name, int start, String cigar, boolean first, boolean negative, int mateStart) {
+        SAMRecord record = PairedRecords.mate(header, name, 0, start, cigar, first, negative, mateStart);
+        record.setAttribute("NM", random.nextInt(4));
+        return record;
+    }
+
+    private static List<Region> blocksOf(SAMRecord record) {
+        List<Region> blocks = new ArrayList<>();
+        for (AlignmentBlock block : record.getAlignmentBlocks())
+            blocks.add(new Region(block.getReferenceStart(), block.getReferenceStart() + block.getLength() - 1));
+        return blocks;
+    }
+
+    private static Set<Region> oldIntrons(SAMRecord record) {
+        List<Region> blocks = blocksOf(record);
+        Set<Region> introns = new HashSet<>();
+
+        for (int i = 0; i < blocks.size() - 1; i++) {
+            int intronStart = blocks.get(i).end() + 1;
+            int intronEnd = blocks.get(i + 1).start() - 1;
+            if (intronEnd >= intronStart) introns.add(new Region(intronStart, intronEnd));
+        }
+
+        return introns;
+    }
+
+    private static Set<Region> skipsOf(SAMRecord record) {
+        Set<Region> skips = new HashSet<>();
+        int position = record.getAlignmentStart();
+
+        for (CigarElement element : record.getCigar().getCigarElements()) {
+            if (element.getOperator() == CigarOperator.N) skips.add(new Region(position, position + element.getLength() - 1));
+            if (element.getOperator().consumesReferenceBases()) position += element.getLength();
+        }
+
+        return skips;
+    }
+
+    // ReadPair.getNSplit before the packed kernel, null for split inconsistent pairs
+    private static Integer oldNSplit(SAMRecord first, SAMRecord last) {
+        Region overlap = new Region(first.getAlignmentStart(), first.getAlignmentEnd())
+                .getIntersectingRegion(new Region(last.getAlignmentStart(), last.getAlignmentEnd()));
+
+        Set<Region> firstIntrons = oldIntrons(first);
+        Set<Region> lastIntrons = oldIntrons(last);
+
+        if (overlap != null) {
+            Set<Region> firstOverlap = firstIntrons.stream().filter(i -> i.intersects(overlap)).collect(Collectors.toSet());
+            Set<Region> lastOverlap = lastIntrons.stream().filter(i -> i.intersects(overlap)).collect(Collectors.toSet());
+            if (!firstOverlap.equals(lastOverlap)) return null;
+        }
+
+        firstIntrons.addAll(lastIntrons);
+        return firstIntrons.size();
+    }
+
+    private static int[] packed(Collection<Region> regions) {
+        List<Region> sorted = new ArrayList<>(regions);
+        sorted.sort(Comparator.comparingInt(Region::start).thenComparingInt(Region::end));
+
+        int[] packed = new int[sorted.size() * 2];
+        for (int i = 0; i < sorted.size(); i++) {
+            packed[2 * i] = sorted.get(i).start();
+            packed[2 * i + 1] = sorted.get(i).end();
+        }
+        return packed;
+    }
+
+    @Test
+    void featuresMatchRegionLogic() {
+        int inconsistent = 0, spliced = 0;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            int firstStart = 50 + random.nextInt(800);
+            String firstCigar = randomCigar();
+
+            // identical mates, mates overlapping the first one and separate mates
+            int lastStart;
+            String lastCigar;
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    lastStart = firstStart;
+                    lastCigar = firstCigar;
+                }
+                case 1 -> {
+                    lastStart = firstStart + random.nextInt(60);
+                    lastCigar = randomCigar();
+                }
+                default -> {
+                    lastStart = firstStart + 300 + random.nextInt(300);
+                    lastCigar = randomCigar();
+                }
+            }
+
+            boolean negative = random.nextBoolean();
+            SAMRecord first = record("r" + round, firstStart, firstCigar, true, negative, lastStart);
+            SAMRecord last = record("r" + round, lastStart, lastCigar, false, !negative, firstStart);
+
+            PairFeatures features = new ReadPair(first, last).analyze(annotation, null, new PcrIndexMap());
+            Integer expectedSplit = oldNSplit(first, last);
+            String pair = firstStart + " " + firstCigar + " / " + lastStart + " " + lastCigar;
+
+            List<Region> pairBlocks = new ArrayList<>(blocksOf(first));
+            pairBlocks.addAll(blocksOf(last));
+            assertArrayEquals(packed(BamFeatureUtils.mergeVector(pairBlocks)), features.blocks(), pair);
+
+            if (expectedSplit == null) {
+                assertTrue(features.splitInconsistent(), pair);
+                inconsistent++;
+                continue;
+            }
+
+            assertFalse(features.splitInconsistent(), pair);
+            assertEquals(expectedSplit, features.nSplit(), pair);
+
+            Set<Region> introns = oldIntrons(first);
+            introns.addAll(oldIntrons(last));
+            assertArrayEquals(packed(introns), features.introns(), pair);
+
+            // junctions are the N spans only, the 1-3 bp deletions stay out of them
+            Set<Region> junctions = skipsOf(first);
+            junctions.addAll(skipsOf(last));
+            assertArrayEquals(packed(junctions), features.junctions(), pair);
+
+            assertEquals(first.getIntegerAttribute("NM") + last.getIntegerAttribute("NM"), features.mismatches(), pair);
+            if (expectedSplit > 0) spliced++;
+        }
+
+        // the generator has to reach both interesting branches
+        assertTrue(inconsistent > ROUNDS / 20, "split inconsistent pairs: " + inconsistent);
+        assertTrue(spliced > ROUNDS / 10, "spliced pairs: " + spliced);
+    }
+}
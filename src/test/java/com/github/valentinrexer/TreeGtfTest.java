@@ -0,0 +1,190 @@
+package com.github.valentinrexer;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TreeGtfTest {
+    /*
+    TreeGtf and ContigAnnotation are shared by all worker threads of a run. Random queries answered by
+    many threads at once have to give the same answers as the same queries on one thread,
+    and the containing genes have to match a plain scan over all genes.
+     */
+
+    private static final String[] CONTIGS = {"chr1", "chr2"};
+    private static final int CONTIG_LENGTH = 200_000;
+    private static final int GENES = 400;
+    private static final int QUERIES = 20_000;
+    private static final int THREADS = 8;
+
+    private static TreeGtf stranded;
+    private static TreeGtf unstranded;
+    private static ContigAnnotation strandedAnnotation;
+    private static ContigAnnotation unstrandedAnnotation;
+    private static List<String> queries;
+
+    @BeforeAll
+    static void buildAnnotation(@TempDir Path dir) throws IOException {
+        Random random = new Random(11);
+        Path gtf = dir.resolve("random.gtf");
+        List<String> lines = new ArrayList<>();
+
+        for (int g = 0; g < GENES; g++) {
+            String contig = CONTIGS[random.nextInt(CONTIGS.length)];
+            char strand = random.nextBoolean() ? '+' : '-';
+            int geneStart = 1 + random.nextInt(CONTIG_LENGTH - 20_000);
+            String gene = "gene_id \"G" + g + "\";";
+
+            lines.add(String.join("\t", contig, "src", "gene", String.valueOf(geneStart), String.valueOf(geneStart + 15_000),
+                    ".", String.valueOf(strand), ".", gene));
+
+            for (int t = 0, transcripts = 1 + random.nextInt(3); t < transcripts; t++) {
+                String transcript = gene + " transcript_id \"G" + g + "T" + t + "\";";
+                int exonStart = geneStart + random.nextInt(500);
+
+                for (int e = 0, exons = 1 + random.nextInt(5); e < exons; e++) {
+                    int exonEnd = exonStart + 50 + random.nextInt(400);
+                    lines.add(String.join("\t", contig, "src", "exon", String.valueOf(exonStart), String.valueOf(exonEnd),
+                            ".", String.valueOf(strand), ".", transcript));
+                    exonStart = exonEnd + 100 + random.nextInt(2_000);
+                }
+            }
+        }
+        Files.write(gtf, lines);
+
+        TreeGtfBuilder builder = new TreeGtfBuilder().readInGffFile(gtf);
+        stranded = builder.build(true);
+        unstranded = builder.build(null);
+
+        SAMSequenceDictionary dictionary = new SAMSequenceDictionary(List.of(
+                new SAMSequenceRecord("chr1", CONTIG_LENGTH), new SAMSequenceRecord("chr2", CONTIG_LENGTH)));
+        strandedAnnotation = stranded.bind(dictionary, new ContigAliases(false));
+        unstrandedAnnotation = unstranded.bind(dictionary, new ContigAliases(false));
+
+        // reference index, start, end and strand ("+", "-" or "."), a few of them exactly on annotated introns
+        List<Gene> genes = stranded.getGenes();
+        queries = new ArrayList<>(QUERIES);
+        for (int q = 0; q < QUERIES; q++) {
+            int referenceIndex = random.nextInt(CONTIGS.length);
+            int start = 1 + random.nextInt(CONTIG_LENGTH);
+            int end = start + random.nextInt(q % 2 == 0 ? 300 : 5_000);
+            String strand = String.valueOf("+-.".charAt(random.nextInt(3)));
+
+            Gene gene = genes.get(random.nextInt(genes.size()));
+            List<Exon> exons = gene.getTranscripts().getFirst().getExons();
+            if (q % 10 == 0 && exons.size() > 1) {
+                referenceIndex = Arrays.asList(CONTIGS).indexOf(gene.getChromosome());
+                start = exons.get(0).getEnd() + 1;
+                end = exons.get(1).getStart() - 1;
+            }
+
+            queries.add(referenceIndex + " " + start + " " + end + " " + strand);
+        }
+    }
+
+    private static String ids(Collection<Gene> genes) {
+        List<String> ids = new ArrayList<>();
+        for (Gene gene : genes) ids.add(gene.getGeneId());
+        Collections.sort(ids);
+        return String.join(",", ids);
+    }
+
+    private static Boolean strandOf(String strand) {
+        return strand.equals(".") ? null : strand.equals("+");
+    }
+
+    // a stranded TreeGtf only has plus and minus trees, unstranded lookups go to the unstranded build like in a run
+    private static ContigAnnotation annotationFor(Boolean strand) {
+        return strand == null ? unstrandedAnnotation : strandedAnnotation;
+    }
+
+    private static TreeGtf treeGtfFor(Boolean strand) {
+        return strand == null ? unstranded : stranded;
+    }
+
+    private static String answer(String query) {
+        String[] fields = query.split(" ");
+        int referenceIndex = Integer.parseInt(fields[0]);
+        int start = Integer.parseInt(fields[1]);
+        int end = Integer.parseInt(fields[2]);
+        String contig = CONTIGS[referenceIndex];
+        Boolean strand = strandOf(fields[3]);
+
+        ContigAnnotation annotation = annotationFor(strand);
+
+        List<Gene> containing = new ArrayList<>();
+        annotation.forEachContainingGene(referenceIndex, start, end, strand, containing::add);
+
+        return ids(containing) +
+                "|" + ids(treeGtfFor(strand).getContainingGenes(contig, start, end, strand)) +
+                "|" + ids(annotation.getLeftNeighbor(referenceIndex, start, end, strand)) +
+                "|" + ids(annotation.getRightNeighbor(referenceIndex, start, end, strand)) +
+                "|" + annotation.isAnnotatedIntron(contig, start, end, fields[3].charAt(0));
+    }
+
+    @Test
+    void containingGenesMatchScan() {
+        for (String query : queries) {
+            String[] fields = query.split(" ");
+            String contig = CONTIGS[Integer.parseInt(fields[0])];
+            int start = Integer.parseInt(fields[1]);
+            int end = Integer.parseInt(fields[2]);
+            Boolean strand = strandOf(fields[3]);
+
+            List<Gene> expected = new ArrayList<>();
+            for (Gene gene : treeGtfFor(strand).getGenes()) {
+                if (!gene.getChromosome().equals(contig) || gene.getStart() > start || gene.getEnd() < end) continue;
+                if (strand == null || strand == (gene.getStrand() == '+')) expected.add(gene);
+            }
+
+            List<Gene> found = new ArrayList<>();
+            annotationFor(strand).forEachContainingGene(Integer.parseInt(fields[0]), start, end, strand, found::add);
+            assertEquals(ids(expected), ids(found), query);
+        }
+    }
+
+    @Test
+    void concurrentQueriesMatchSequential() throws InterruptedException, ExecutionException {
+        List<String> expected = new ArrayList<>(queries.size());
+        for (String query : queries) expected.add(answer(query));
+
+        // the queries are not trivially empty, otherwise the comparison proves little
+        assertTrue(expected.stream().filter(a -> !a.startsWith("|")).count() > QUERIES / 10);
+        assertTrue(expected.stream().filter(a -> a.endsWith("true")).count() > QUERIES / 100);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+
+        try {
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                // every thread walks all queries from a different offset, so the same trees are hit at the same time
+                int offset = t * (QUERIES / THREADS);
+                results.add(executor.submit(() -> {
+                    start.await();
+                    String[] answers = new String[queries.size()];
+                    for (int i = 0; i < queries.size(); i++) {
+                        int q = (offset + i) % queries.size();
+                        answers[q] = answer(queries.get(q));
+                    }
+                    return Arrays.asList(answers);
+                }));
+            }
+
+            start.countDown();
+            for (Future<List<String>> result : results) assertEquals(expected, result.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.github.valentinrexer.utils;
+
+import com.github.valentinrexer.Region;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntervalBufferTest {
+    /*
+    Compares the packed buffer operations against the Region and HashSet logic ReadPair used before,
+    on random short vectors as they come out of CIGARs: close together, overlapping, adjacent and duplicated.
+     */
+
+    private static final int ROUNDS = 20_000;
+
+    private final Random random = new Random(42);
+
+    private List<Region> randomRegions(int maxCount) {
+        List<Region> regions = new ArrayList<>();
+        int count = random.nextInt(maxCount + 1);
+
+        for (int i = 0; i < count; i++) {
+            int start = 1 + random.nextInt(200);
+            regions.add(new Region(start, start + random.nextInt(30)));
+        }
+
+        // duplicates show up when both mates share a block
+        if (!regions.isEmpty() && random.nextBoolean()) regions.add(regions.get(random.nextInt(regions.size())));
+        return regions;
+    }
+
+    /*
+    Consecutive blocks of one alignment: increasing, separated by gaps of 0 (adjacent after an insertion) or more
+     */
+    private List<Region> randomAlignmentBlocks() {
+        List<Region> blocks = new ArrayList<>();
+        int position = 1 + random.nextInt(100);
+        int count = 1 + random.nextInt(5);
+
+        for (int i = 0; i < count; i++) {
+            int length = 1 + random.nextInt(40);
+            blocks.add(new Region(position, position + length - 1));
+            position += length + (random.nextInt(3) == 0 ? 0 : random.nextInt(60));
+        }
+
+        return blocks;
+    }
+
+    private static IntervalBuffer bufferOf(Collection<Region> regions) {
+        IntervalBuffer buffer = new IntervalBuffer(1);
+        for (Region region : regions) buffer.add(region.start(), region.end());
+        return buffer;
+    }
+
+    private static List<Region> regionsOf(IntervalBuffer buffer) {
+        List<Region> regions = new ArrayList<>();
+        for (int i = 0; i < buffer.size(); i++) regions.add(new Region(buffer.start(i), buffer.end(i)));
+        return regions;
+    }
+
+    private static List<Region> sorted(Collection<Region> regions) {
+        List<Region> sorted = new ArrayList<>(regions);
+        sorted.sort(Comparator.comparingInt(Region::start).thenComparingInt(Region::end));
+        return sorted;
+    }
+
+    // ReadPair.getIntrons before the packed kernel
+    private static Set<Region> oldIntrons(List<Region> blocks) {
+        Set<Region> introns = new HashSet<>();
+
+        for (int i = 0; i < blocks.size() - 1; i++) {
+            int intronStart = blocks.get(i).end() + 1;
+            int intronEnd = blocks.get(i + 1).start() - 1;
+            if (intronEnd >= intronStart) introns.add(new Region(intronStart, intronEnd));
+        }
+
+        return introns;
+    }
+
+    @Test
+    void sortAndMergeMatchesMergeVector() {
+        for (int round = 0; round < ROUNDS; round++) {
+            List<Region> regions = randomRegions(8);
+
+            IntervalBuffer buffer = bufferOf(regions);
+            buffer.sortAndMerge();
+
+            assertEquals(BamFeatureUtils.mergeVector(regions), regionsOf(buffer), () -> "merging " + regions);
+        }
+    }
+
+    @Test
+    void sortAndDeduplicateMatchesSet() {
+        for (int round = 0; round < ROUNDS; round++) {
+            List<Region> regions = randomRegions(8);
+
+            IntervalBuffer buffer = bufferOf(regions);
+            buffer.sortAndDeduplicate();
+
+            assertEquals(sorted(new HashSet<>(regions)), regionsOf(buffer), () -> "deduplicating " + regions);
+        }
+    }
+
+    @Test
+    void addGapsMatchesOldIntrons() {
+        for (int round = 0; round < ROUNDS; round++) {
+            List<Region> blocks = randomAlignmentBlocks();
+
+            IntervalBuffer introns = new IntervalBuffer();
+            introns.addGaps(bufferOf(blocks));
+            introns.sortAndDeduplicate();
+
+            assertEquals(sorted(oldIntrons(blocks)), regionsOf(introns), () -> "gaps of " + blocks);
+        }
+    }
+
+    @Test
+    void intersectingEqualsMatchesFilteredSets() {
+        for (int round = 0; round < ROUNDS; round++) {
+            Set<Region> first = new HashSet<>(randomRegions(5));
+            // mates mostly agree on their introns, so equal sets have to come up often
+            Set<Region> last = random.nextBoolean() ? new HashSet<>(first) : new HashSet<>(randomRegions(5));
+            if (random.nextBoolean()) last.addAll(randomRegions(1));
+
+            int start = 1 + random.nextInt(200);
+            Region overlap = new Region(start, start + random.nextInt(80));
+
+            boolean expected = first.stream().filter(r -> r.intersects(overlap)).collect(Collectors.toSet())
+                    .equals(last.stream().filter(r -> r.intersects(overlap)).collect(Collectors.toSet()));
+
+            IntervalBuffer firstBuffer = bufferOf(first), lastBuffer = bufferOf(last);
+            firstBuffer.sortAndDeduplicate();
+            lastBuffer.sortAndDeduplicate();
+
+            assertEquals(expected, firstBuffer.intersectingEquals(lastBuffer, overlap.start(), overlap.end()),
+                    () -> first + " vs " + last + " within " + overlap);
+        }
+    }
+
+    @Test
+    void unionMatchesSetUnion() {
+        for (int round = 0; round < ROUNDS; round++) {
+            Set<Region> first = new HashSet<>(randomRegions(5));
+            Set<Region> last = new HashSet<>(randomRegions(5));
+            if (random.nextBoolean()) last.addAll(first);
+
+            Set<Region> union = new HashSet<>(first);
+            union.addAll(last);
+
+            IntervalBuffer firstBuffer = bufferOf(first), lastBuffer = bufferOf(last), target = new IntervalBuffer();
+            firstBuffer.sortAndDeduplicate();
+            lastBuffer.sortAndDeduplicate();
+            firstBuffer.unionInto(lastBuffer, target);
+
+            assertEquals(union.size(), firstBuffer.unionSize(lastBuffer));
+            assertEquals(sorted(union), regionsOf(target));
+        }
+    }
+
+    @Test
+    void coversMatchesTrimmedMergedTranscriptome() {
+        for (int round = 0; round < ROUNDS; round++) {
+            List<Region> merged = BamFeatureUtils.mergeVector(randomRegions(6));
+            int[] packed = bufferOf(merged).toArray();
+
+            int start = 1 + random.nextInt(230);
+            Region block = new Region(start, start + random.nextInt(40));
+
+            // Gene.getMergedTranscriptomeForInterval before the packed kernel: intersecting merged blocks trimmed to the block, exactly one equal to it
+            List<Region> trimmed = new ArrayList<>();
+            for (Region region : merged) {
+                if (region.intersects(block))
+                    trimmed.add(new Region(Math.max(block.start(), region.start()), Math.min(block.end(), region.end())));
+            }
+            boolean expected = trimmed.size() == 1 && trimmed.getFirst().equals(block);
+
+            assertEquals(expected, IntervalBuffer.covers(packed, block.start(), block.end()), () -> block + " in " + merged);
+        }
+    }
+}
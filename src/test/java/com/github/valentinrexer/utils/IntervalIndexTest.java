@@ -0,0 +1,147 @@
+package com.github.valentinrexer.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.function.BiPredicate;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntervalIndexTest {
+    /*
+    Every query of the implicit tree against a scan over all intervals, on random sets of 0 to 300 intervals
+    in a small coordinate range, so starts, ends and neighbor distances tie often. The sets also contain
+    single base intervals, empty ones (stop = start - 1), exact duplicates and intervals touching each other,
+    and queries are placed on interval boundaries and one base next to them.
+     */
+
+    private static final int ROUNDS = 3_000;
+    private static final int QUERIES = 40;
+
+    // the id tells duplicates apart
+    private record Item(int id, int start, int stop) implements Interval {
+        @Override
+        public int getStart() { return start; }
+
+        @Override
+        public int getStop() { return stop; }
+    }
+
+    private final Random random = new Random(17);
+
+    private List<Item> randomItems() {
+        int count = random.nextInt(10) == 0 ? random.nextInt(3) : random.nextInt(300);
+        int range = 20 + random.nextInt(500);
+        List<Item> items = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            int start = 1 + random.nextInt(range);
+            int stop = switch (random.nextInt(8)) {
+                case 0 -> start;
+                case 1 -> start - 1;
+                default -> start + random.nextInt(40);
+            };
+
+            Item item = new Item(items.size(), start, stop);
+            items.add(item);
+
+            if (random.nextInt(8) == 0) items.add(new Item(items.size(), start, stop));
+            if (random.nextInt(8) == 0) items.add(new Item(items.size(), stop + 1, stop + 1 + random.nextInt(20)));
+        }
+
+        Collections.shuffle(items, random);
+        return items;
+    }
+
+    private int[] randomQuery(List<Item> items) {
+        int start, end;
+        if (!items.isEmpty() && random.nextBoolean()) {
+            Item item = items.get(random.nextInt(items.size()));
+            int[] candidates = {item.start() - 1, item.start(), item.stop(), item.stop() + 1};
+            start = candidates[random.nextInt(candidates.length)];
+        } else {
+            start = random.nextInt(600);
+        }
+
+        end = random.nextInt(4) == 0 ? start : start + random.nextInt(60);
+        return new int[] {start, end};
+    }
+
+    private static List<Integer> ids(Collection<Item> items) {
+        List<Integer> ids = new ArrayList<>();
+        for (Item item : items) ids.add(item.id());
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private static List<Item> scan(List<Item> items, BiPredicate<Item, int[]> keep, int[] query) {
+        List<Item> kept = new ArrayList<>();
+        for (Item item : items) if (keep.test(item, query)) kept.add(item);
+        return kept;
+    }
+
+    private static void assertStartOrder(List<Item> found, Supplier<String> context) {
+        for (int i = 1; i < found.size(); i++)
+            assertTrue(found.get(i - 1).start() <= found.get(i).start(), () -> "not in start order: " + context.get());
+    }
+
+    @Test
+    void queriesMatchScan() {
+        int nonEmptyNeighbors = 0, nonEmptyOverlaps = 0;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            List<Item> items = randomItems();
+            IntervalIndex<Item> index = new IntervalIndex<>(items);
+            assertEquals(items.size(), index.size());
+
+            for (int q = 0; q < QUERIES; q++) {
+                int[] query = randomQuery(items);
+                Supplier<String> context = () -> Arrays.toString(query) + " in " + items;
+
+                List<Item> intersecting = index.getIntervalsIntersecting(query[0], query[1], new ArrayList<>());
+                assertEquals(ids(scan(items, (i, r) -> i.start() <= r[1] && i.stop() >= r[0], query)), ids(intersecting), context);
+                assertStartOrder(intersecting, context);
+
+                List<Item> spanning = index.getIntervalsSpanning(query[0], query[1], new ArrayList<>());
+                assertEquals(ids(scan(items, (i, r) -> i.start() <= r[0] && i.stop() >= r[1], query)), ids(spanning), context);
+                assertStartOrder(spanning, context);
+
+                // an empty interval starting right after the query is not within it, even though its stop is
+                List<Item> spanned = index.getIntervalsSpannedBy(query[0], query[1], new ArrayList<>());
+                assertEquals(ids(scan(items, (i, r) -> i.start() >= r[0] && i.start() <= r[1] && i.stop() <= r[1], query)),
+                        ids(spanned), context);
+
+                // left: largest end below the query start, right: smallest start after the query end
+                List<Item> before = scan(items, (i, r) -> i.stop() < r[0], query);
+                int closestEnd = before.stream().mapToInt(Item::stop).max().orElse(Integer.MIN_VALUE);
+                List<Item> left = index.getIntervalsLeftNeighbor(query[0], query[1], new ArrayList<>());
+                assertEquals(ids(scan(before, (i, r) -> i.stop() == closestEnd, query)), ids(left), context);
+
+                List<Item> after = scan(items, (i, r) -> i.start() > r[1], query);
+                int closestStart = after.stream().mapToInt(Item::start).min().orElse(Integer.MAX_VALUE);
+                List<Item> right = index.getIntervalsRightNeighbor(query[0], query[1], new ArrayList<>());
+                assertEquals(ids(scan(after, (i, r) -> i.start() == closestStart, query)), ids(right), context);
+
+                if (left.size() > 1 || right.size() > 1) nonEmptyNeighbors++;
+                if (intersecting.size() > 1) nonEmptyOverlaps++;
+            }
+        }
+
+        // ties among neighbors and multiple overlaps have to come up, otherwise the generator is too sparse
+        assertTrue(nonEmptyNeighbors > ROUNDS, "tied neighbors: " + nonEmptyNeighbors);
+        assertTrue(nonEmptyOverlaps > ROUNDS * QUERIES / 4, "multiple overlaps: " + nonEmptyOverlaps);
+    }
+
+    @Test
+    void emptyIndexAnswersNothing() {
+        IntervalIndex<Item> index = new IntervalIndex<>(List.of());
+
+        assertEquals(0, index.size());
+        assertTrue(index.getIntervalsIntersecting(1, 100, new ArrayList<>()).isEmpty());
+        assertTrue(index.getIntervalsSpanning(1, 100, new ArrayList<>()).isEmpty());
+        assertTrue(index.getIntervalsSpannedBy(1, 100, new ArrayList<>()).isEmpty());
+        assertTrue(index.getIntervalsLeftNeighbor(1, 100, new ArrayList<>()).isEmpty());
+        assertTrue(index.getIntervalsRightNeighbor(1, 100, new ArrayList<>()).isEmpty());
+    }
+}
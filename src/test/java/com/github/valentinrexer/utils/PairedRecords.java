@@ -0,0 +1,32 @@
+package com.github.valentinrexer.utils;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+
+public final class PairedRecords {
+    /*
+    Mapped, properly paired records without bases for the tests. Both mates of a pair lie on the same contig
+    and on opposite strands, so the extraction takes them as pair candidates.
+     */
+
+    private PairedRecords() {}
+
+    public static SAMRecord mate(SAMFileHeader header, String name, int contig, int start, String cigar,
+                                 boolean first, boolean negative, int mateStart) {
+        SAMRecord record = new SAMRecord(header);
+        record.setReadName(name);
+        record.setReferenceIndex(contig);
+        record.setAlignmentStart(start);
+        record.setCigarString(cigar);
+        record.setReadBases(SAMRecord.NULL_SEQUENCE);
+        record.setBaseQualities(SAMRecord.NULL_QUALS);
+        record.setReadPairedFlag(true);
+        record.setFirstOfPairFlag(first);
+        record.setSecondOfPairFlag(!first);
+        record.setReadNegativeStrandFlag(negative);
+        record.setMateNegativeStrandFlag(!negative);
+        record.setMateReferenceIndex(contig);
+        record.setMateAlignmentStart(mateStart);
+        return record;
+    }
+}